@@ -0,0 +1,78 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the rendering core and writes the results as json, 
+ * so that runs of different revisions can be compared.
+ * 
+ * This source folder is not part of the Android build. Compile it together with
+ * the Android-free packages (math, modes, tools and io in src), gson and JMH 
+ * (jmh-core and jmh-generator-annprocess, which generates the benchmark classes 
+ * while compiling):
+ * 
+ * javac -cp libs/gson-2.2.2.jar:$JMH -d bin/benchmarks $(find benchmarks/src src/com/fractview/{math,modes,tools,io} -name '*.java')
+ * java -cp bin/benchmarks:libs/gson-2.2.2.jar:$JMH com.fractview.benchmarks.Benchmarks results.json
+ * 
+ * Further arguments are passed to JMH, eg "OrbitBenchmark -f 1" only runs the orbit 
+ * benchmarks in a single fork.
+ */
+public class Benchmarks {
+	
+	private static final String USAGE = 
+			"usage: Benchmarks <json-file> [jmh options]";
+	
+	public static void main(String[] args) throws RunnerException {
+		if(args.length < 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		
+		String[] jmhArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+		
+		CommandLineOptions commandLine;
+		
+		try {
+			commandLine = new CommandLineOptions(jmhArgs);
+		} catch(CommandLineOptionException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine)
+				.resultFormat(ResultFormatType.JSON)
+				.result(args[0]);
+		
+		if(commandLine.getIncludes().isEmpty()) {
+			options.include(Benchmarks.class.getPackage().getName() + ".");
+		}
+		
+		new Runner(options.build()).run();
+	}
+}
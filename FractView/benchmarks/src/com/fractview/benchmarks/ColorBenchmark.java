@@ -0,0 +1,80 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fractview.math.colors.Colors;
+import com.fractview.math.colors.Palette;
+
+/**
+ * Colorization of single values: Palette.color and the conversion from Lab 
+ * that it ends in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorBenchmark {
+	
+	static final int VALUES = 1024;
+	
+	private Palette palette;
+	
+	private float[] xs;
+	private float[][] labs;
+	
+	@Setup
+	public void setup() {
+		palette = Fixtures.palette();
+		
+		xs = new float[VALUES];
+		labs = new float[VALUES][];
+		
+		for(int i = 0; i < VALUES; i++) {
+			// Values of a transfer usually are between 0 and a few palette lengths.
+			xs[i] = 8f * i / VALUES;
+			labs[i] = Colors.IntToLab(palette.color(xs[i]));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public void paletteColor(Blackhole bh) {
+		for(int i = 0; i < VALUES; i++) {
+			bh.consume(palette.color(xs[i]));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public void labToRGB(Blackhole bh) {
+		for(int i = 0; i < VALUES; i++) {
+			float[] lab = labs[i];
+			bh.consume(Colors.LabToRGB(lab[0], lab[1], lab[2], 1));
+		}
+	}
+}
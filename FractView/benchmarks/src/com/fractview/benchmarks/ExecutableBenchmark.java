@@ -0,0 +1,91 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
+import com.fractview.math.tree.ClassGenerator;
+import com.fractview.math.tree.Executable;
+import com.fractview.math.tree.ExprCompiler;
+import com.fractview.math.tree.Var;
+import com.fractview.modes.orbit.functions.Function;
+
+/**
+ * One step of a formula, once in the interpreter and once as generated class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExecutableBenchmark {
+	
+	@Param({ Fixtures.MANDELBROT, Fixtures.CUBIC, Fixtures.NOVA, Fixtures.POW, Fixtures.TRIG })
+	public String formula;
+	
+	@Param({ "interpreted", "generated" })
+	public String executor;
+	
+	private Executable executable;
+	private CplxArray zs;
+	private Cplx c;
+	
+	@Setup
+	public void setup() {
+		Function function = Fixtures.function(formula);
+		
+		List<Cplx> constants = new LinkedList<Cplx>();
+		List<Var> parameters = new LinkedList<Var>();
+		
+		ExprCompiler.collect(function.function().get(), constants, parameters);
+		int[] code = ExprCompiler.generateCode(function.function().get(), constants, parameters);
+		
+		Cplx[] cs = constants.toArray(new Cplx[constants.size()]);
+		
+		executable = executor.equals("generated") ? 
+				ClassGenerator.create(code, cs, parameters.size()) :
+				new Executable(code, cs, parameters.size());
+		
+		for(int i = 0; i < parameters.size(); i++) {
+			executable.setParameter(i, function.parameter(parameters.get(i)).get());
+		}
+		
+		zs = new CplxArray(2);
+		zs.ensureIndex(1);
+		
+		c = new Cplx(-0.75, 0.1);
+	}
+	
+	@Benchmark
+	public double execute() {
+		// Start from the same point each time so that the values cannot escape.
+		zs.set(0, 0.3, -0.2);
+		executable.execute(c, zs, 0);
+		return zs.re(1);
+	}
+}
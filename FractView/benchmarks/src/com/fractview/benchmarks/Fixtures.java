@@ -0,0 +1,109 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fractview.math.Affine;
+import com.fractview.math.Cplx;
+import com.fractview.math.colors.Palette;
+import com.fractview.math.tree.Expr;
+import com.fractview.math.tree.Parser;
+import com.fractview.math.tree.Var;
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+import com.fractview.modes.orbit.colorization.CommonTransfer;
+import com.fractview.modes.orbit.colorization.OrbitTransfer;
+import com.fractview.modes.orbit.functions.Function;
+import com.fractview.tools.Labelled;
+
+/**
+ * Preferences that are shared by the benchmarks. They are built like the defaults 
+ * in BookmarkManager, which cannot be used here because it depends on Android.
+ */
+class Fixtures {
+	
+	/**
+	 * Names of the formulas that are used in the benchmarks. Use them as 
+	 * values of a Param.
+	 */
+	static final String MANDELBROT = "mandelbrot";
+	static final String CUBIC = "cubic";
+	static final String NOVA = "nova";
+	static final String POW = "pow";
+	static final String TRIG = "trig";
+	
+	static Function function(String name) {
+		if(name.equals(MANDELBROT)) {
+			return function("sqr z + c", "0");
+		} else if(name.equals(CUBIC)) {
+			return function("z^3 + c", "0");
+		} else if(name.equals(NOVA)) {
+			// Nova for z^3 - 1, ie a relaxed newton step plus c
+			return function("z - R * (z^3 - 1) / (3 * sqr z) + c", "1", "R", new Cplx(1, 0));
+		} else if(name.equals(POW)) {
+			return function("z^2.5 + c", "0");
+		} else if(name.equals(TRIG)) {
+			return function("c * sin z", "1");
+		}
+		
+		throw new IllegalArgumentException("no such formula: " + name);
+	}
+	
+	static Function function(String sf, String si0) {
+		return function(sf, si0, null, null);
+	}
+	
+	static Function function(String sf, String si0, String parameter, Cplx value) {
+		Labelled<Expr> fn = new Labelled<Expr>(Parser.parse(sf).get(), sf);
+		Labelled<Expr> i0 = new Labelled<Expr>(Parser.parse(si0).get(), si0);
+		
+		Map<Var, Labelled<Cplx>> ps = new TreeMap<Var, Labelled<Cplx>>();
+		
+		if(parameter != null) {
+			ps.put(new Var(parameter), new Labelled<Cplx>(value, value.toString()));
+		}
+		
+		List<Labelled<Expr>> l = new ArrayList<Labelled<Expr>>();
+		l.add(i0);
+		
+		return new Function(fn, l, ps);
+	}
+	
+	static Palette palette() {
+		return new Palette(new float[][]{
+				{40, 1, 1}, {302, 0.96f, 0.19f}, {236, 1, 0.39f}, {213, 0.84f, 0.8f}, {180, 0.07f, 1}
+		}, true);
+	}
+	
+	/**
+	 * @param method Used for bailout and lake points.
+	 */
+	static EscapeTime escapeTime(String name, int maxIter, CommonOrbitToFloat method) {
+		Affine affine = Affine.scalation(4, 4);
+		affine.preConcat(Affine.translation(-2, -2));
+		
+		Palette palette = palette();
+		
+		return new EscapeTime(affine, maxIter, function(name),
+				64, method, new OrbitTransfer(CommonTransfer.Log, new OrbitTransfer.Stats(0, 1)), palette, 
+				1e-9, 0, method, new OrbitTransfer(CommonTransfer.None, null), palette);
+	}
+}
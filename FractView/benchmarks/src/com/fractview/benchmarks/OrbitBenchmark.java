@@ -0,0 +1,71 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+
+/**
+ * Generates the orbits of all pixels of a small image, hence the score is the 
+ * average time per pixel. The image shows the whole fractal so that it contains 
+ * bailout points as well as lake points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrbitBenchmark {
+	
+	static final int SIZE = 64;
+	
+	@Param({ Fixtures.MANDELBROT, Fixtures.CUBIC, Fixtures.NOVA, Fixtures.POW, Fixtures.TRIG })
+	public String formula;
+	
+	@Param({ "256" })
+	public int maxIter;
+	
+	private EscapeTime.Orbit orbit;
+	
+	@Setup
+	public void setup() {
+		EscapeTime prefs = Fixtures.escapeTime(formula, maxIter, CommonOrbitToFloat.Length_Smooth);
+		orbit = prefs.createOrbit();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SIZE * SIZE)
+	public void generate(Blackhole bh) {
+		for(int y = 0; y < SIZE; y++) {
+			for(int x = 0; x < SIZE; x++) {
+				orbit.generate(x, y, SIZE, SIZE);
+				bh.consume(orbit.value());
+			}
+		}
+	}
+}
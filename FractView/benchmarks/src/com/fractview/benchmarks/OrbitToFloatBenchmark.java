@@ -0,0 +1,82 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+
+/**
+ * Costs of each CommonOrbitToFloat. value evaluates the method on orbits that
+ * were generated in advance, generate also contains the costs of accumulate
+ * and of the orbit history that the method requires.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrbitToFloatBenchmark {
+	
+	// Points on a diagonal through the mandelbrot set, 
+	// some of them bail out, others do not.
+	static final int POINTS = 16;
+	
+	@Param // all constants
+	public CommonOrbitToFloat method;
+	
+	private EscapeTime.Orbit[] orbits;
+	
+	@Setup
+	public void setup() {
+		EscapeTime prefs = Fixtures.escapeTime(Fixtures.MANDELBROT, 256, method);
+		
+		orbits = new EscapeTime.Orbit[POINTS];
+		
+		for(int i = 0; i < POINTS; i++) {
+			orbits[i] = prefs.createOrbit();
+			orbits[i].generate(i, i, POINTS, POINTS);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void value(Blackhole bh) {
+		for(EscapeTime.Orbit orbit : orbits) {
+			bh.consume(method.value(orbit));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void generate(Blackhole bh) {
+		for(int i = 0; i < POINTS; i++) {
+			orbits[i].generate(i, i, POINTS, POINTS);
+			bh.consume(orbits[i].value());
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.checks;
+
+import com.fractview.modes.AbstractImgCache;
+import com.fractview.modes.ArraySink;
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.EscapeTimeCache;
+
+/**
+ * Cancelling a task must stop its workers soon, also while they calculate
+ * the reference orbit of a deep zoom.
+ */
+class CancelChecks {
+	
+	private static final long MAX_MILLIS = 1000;
+	
+	static void run() throws InterruptedException {
+		// The center is inside of the main cardioid, hence the reference orbit runs up to maxIter.
+		EscapeTime view = Checks.escapeTime(Checks.function("sqr z + c", "0"), -0.1, 0.05, 1e-20);
+		cancel("reference orbit", (EscapeTime) view.newMaxIterInstance(10000000));
+	}
+	
+	private static void cancel(String name, EscapeTime prefs) throws InterruptedException {
+		EscapeTimeCache cache = (EscapeTimeCache) prefs.createImgCache(new ArraySink(200, 150));
+		AbstractImgCache.Task task = cache.calculateInBackground();
+		
+		Thread.sleep(200);
+		
+		long start = System.currentTimeMillis();
+		task.cancel();
+		task.join();
+		long millis = System.currentTimeMillis() - start;
+		
+		Checks.check("cancel " + name, millis < MAX_MILLIS, "join took " + millis + " ms");
+	}
+}
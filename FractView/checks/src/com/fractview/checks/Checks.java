@@ -0,0 +1,103 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.checks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.fractview.math.Affine;
+import com.fractview.math.Cplx;
+import com.fractview.math.colors.Palette;
+import com.fractview.math.tree.Expr;
+import com.fractview.math.tree.Parser;
+import com.fractview.math.tree.Var;
+import com.fractview.modes.AbstractImgCache;
+import com.fractview.modes.ArraySink;
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.EscapeTimeCache;
+import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+import com.fractview.modes.orbit.colorization.CommonTransfer;
+import com.fractview.modes.orbit.colorization.OrbitTransfer;
+import com.fractview.modes.orbit.functions.Function;
+import com.fractview.tools.Labelled;
+
+/**
+ * Regression checks of the rendering core that do not need Android. Each check 
+ * renders images through the caches and compares them with a reference.
+ * 
+ * This source folder is not part of the Android build. Compile it together with
+ * the Android-free packages (math, modes, tools and io in src) and gson:
+ * 
+ * javac -cp libs/gson-2.2.2.jar -d bin/checks $(find checks/src src/com/fractview/{math,modes,tools,io} -name '*.java')
+ * java -cp bin/checks:libs/gson-2.2.2.jar com.fractview.checks.Checks
+ * 
+ * Failed checks are printed and the exit status is 1 if there are any.
+ */
+public class Checks {
+	
+	private static int count = 0;
+	private static int failed = 0;
+	
+	public static void main(String[] args) throws InterruptedException {
+		ResumeChecks.run();
+		CancelChecks.run();
+		
+		System.out.println(count + " checks, " + failed + " failed");
+		
+		if(failed > 0) System.exit(1);
+	}
+	
+	static void check(String name, boolean ok, String details) {
+		count++;
+		
+		if(!ok) {
+			failed++;
+			System.out.println("FAILED: " + name + " (" + details + ")");
+		}
+	}
+	
+	static int[] render(EscapeTimeCache cache) throws InterruptedException {
+		AbstractImgCache.Task task = cache.calculateInBackground();
+		task.join();
+		task.publish();
+		
+		return ((ArraySink) cache.sink()).pixels().clone();
+	}
+	
+	static Function function(String sf, String... sInits) {
+		Labelled<Expr> fn = new Labelled<Expr>(Parser.parse(sf).get(), sf);
+		List<Labelled<Expr>> inits = new ArrayList<Labelled<Expr>>();
+		
+		for(String si : sInits) {
+			inits.add(new Labelled<Expr>(Parser.parse(si).get(), si));
+		}
+		
+		return new Function(fn, inits, new TreeMap<Var, Labelled<Cplx>>());
+	}
+	
+	static EscapeTime escapeTime(Function function, double cx, double cy, double scale) {
+		Affine affine = Affine.scalation(scale, scale);
+		affine.preConcat(Affine.translation(cx - scale / 2, cy - scale / 2));
+		
+		Palette palette = new Palette(new float[][]{{40, 1, 1}, {236, 1, 0.39f}, {180, 0.07f, 1}}, true);
+		
+		return new EscapeTime(affine, 100, function,
+				64, CommonOrbitToFloat.Length_Smooth, new OrbitTransfer(CommonTransfer.Log, new OrbitTransfer.Stats(0, 1)), palette, 
+				1e-9, 0, CommonOrbitToFloat.Last_Angle, new OrbitTransfer(CommonTransfer.None, null), palette);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.checks;
+
+import com.fractview.modes.ArraySink;
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.EscapeTimeCache;
+import com.fractview.modes.orbit.functions.Function;
+
+/**
+ * Resumable caches continue saved orbits if maxIter is raised. The result must
+ * be the same as if the image was calculated with the new maxIter at once.
+ */
+class ResumeChecks {
+	
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 150;
+	
+	static void run() throws InterruptedException {
+		Function mandelbrot = Checks.function("sqr z + c", "0");
+		Function moreInits = Checks.function("sqr z + c + 0.1 * z2", "0", "c", "c");
+		Function startAtC = Checks.function("sqr z + c", "c");
+		
+		// Saved orbits must get the layout of the new function.
+		newFunction("more inits", Checks.escapeTime(mandelbrot, -0.75, 0, 3), moreInits);
+		
+		// Perturbed orbits are not saved, those in double-double precision are.
+		newFunction("perturbed to double-double", Checks.escapeTime(mandelbrot, -0.745, 0.113, 1e-12), startAtC);
+		newFunction("double-double to perturbed", Checks.escapeTime(startAtC, -0.745, 0.113, 1e-12), mandelbrot);
+		
+		// Slots of pixels that leave the image must be used again. Pixels are moved 
+		// by multiples of 1/128 in a view of size 0.25, hence they keep their exact 
+		// coordinates and the result can be compared with a fresh image.
+		pan("period-2 bulb", Checks.escapeTime(mandelbrot, -1, 0, 0.25), 256, 128);
+	}
+	
+	/**
+	 * Renders prefs, moves the image several times and raises maxIter.
+	 */
+	private static void pan(String name, EscapeTime prefs, int width, int height) throws InterruptedException {
+		EscapeTimeCache cache = (EscapeTimeCache) prefs.createImgCache(new ArraySink(width, height));
+		cache.setResumable(true);
+		Checks.render(cache);
+		
+		int[][] moves = {{30, 0}, {0, -45}, {-75, 15}, {15, 30}};
+		
+		for(int[] move : moves) {
+			cache.move(move[0], move[1]);
+			Checks.render(cache);
+		}
+		
+		cache.setMaxIter(300);
+		int[] resumed = Checks.render(cache);
+		
+		compare("pan " + name, cache, resumed);
+	}
+	
+	/**
+	 * Renders prefs, switches to function, renders again and raises maxIter.
+	 */
+	private static void newFunction(String name, EscapeTime prefs, Function function) throws InterruptedException {
+		EscapeTimeCache cache = (EscapeTimeCache) prefs.createImgCache(new ArraySink(WIDTH, HEIGHT));
+		cache.setResumable(true);
+		Checks.render(cache);
+		
+		cache.newFunction(function);
+		Checks.render(cache);
+		
+		cache.setMaxIter(300);
+		int[] resumed = Checks.render(cache);
+		
+		compare("newFunction " + name, cache, resumed);
+	}
+	
+	/**
+	 * Checks that cache is complete and that resumed is the image of a fresh 
+	 * cache with the same preferences.
+	 */
+	private static void compare(String name, EscapeTimeCache cache, int[] resumed) throws InterruptedException {
+		EscapeTimeCache fresh = (EscapeTimeCache) cache.prefs().createImgCache(new ArraySink(cache.width(), cache.height()));
+		int[] expected = Checks.render(fresh);
+		
+		int differ = 0;
+		
+		for(int i = 0; i < expected.length; i++) {
+			if(resumed[i] != expected[i]) differ++;
+		}
+		
+		Checks.check(name, cache.isComplete() && differ == 0, 
+				(cache.isComplete() ? "" : "incomplete, ") + differ + " of " + expected.length + " pixels differ");
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.zip.Deflater;
+
+import com.fractview.io.PngWriter;
+import com.fractview.math.tree.Expr;
+import com.fractview.math.tree.ExprAdapter;
+import com.fractview.modes.ArraySink;
+import com.fractview.modes.RasterTask;
+import com.fractview.modes.orbit.EscapeTimeCache;
+import com.fractview.modes.orbit.EscapeTime;
+import com.fractview.modes.orbit.PosterRenderer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Renders an EscapeTime fractal into a PNG on a plain JVM. The input is the json of 
+ * an EscapeTime as it is written by BookmarkManager, either alone or inside a 
+ * bookmark (then the field "prefs" is used).
+ * 
+ * This source folder is not part of the Android build. Compile it together with
+ * the Android-free packages (math, modes, tools and io in src) and gson:
+ * 
+ * javac -cp libs/gson-2.2.2.jar -d bin/cli $(find cli/src src/com/fractview/{math,modes,tools,io} -name '*.java')
+ * java -cp bin/cli:libs/gson-2.2.2.jar com.fractview.cli.Render fractal.json 1920 1080 fractal.png
+ * 
+ * Images that do not fit into the heap are rendered by a PosterRenderer, it needs 
+ * 8 bytes per pixel of disk space next to the png-file.
+ */
+public class Render {
+	
+	private static final String USAGE = 
+			"usage: Render <json-file> <width> <height> <png-file> [threads]";
+	
+	// Points, colors of the task and of the sink
+	private static final int BYTES_PER_PIXEL = 16;
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 4 || args.length > 5) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		
+		int width = Integer.parseInt(args[1]);
+		int height = Integer.parseInt(args[2]);
+		int threadCount = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		
+		EscapeTime prefs = read(args[0]);
+		
+		if((long) width * height * BYTES_PER_PIXEL > Runtime.getRuntime().maxMemory() / 2) {
+			renderPoster(prefs, width, height, new File(args[3]), threadCount);
+			return;
+		}
+		
+		ArraySink sink = new ArraySink(width, height);
+		
+		long time = System.currentTimeMillis();
+		
+		render(prefs, sink, threadCount);
+		
+		System.err.println("Rendered " + prefs + " in " + (System.currentTimeMillis() - time) + " ms");
+		
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(args[3]));
+		
+		try {
+			PngWriter png = new PngWriter(out, width, height, Deflater.DEFAULT_COMPRESSION, threadCount);
+			png.writeRows(sink.pixels(), 0, height);
+			png.finish();
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static void renderPoster(EscapeTime prefs, int width, int height, File png, int threadCount) 
+			throws IOException, InterruptedException {
+		File data = File.createTempFile("fractview", ".data", png.getAbsoluteFile().getParentFile());
+		
+		long time = System.currentTimeMillis();
+		
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(png));
+		
+		try {
+			new PosterRenderer(prefs, width, height, threadCount).render(data, out);
+		} finally {
+			out.close();
+		}
+		
+		System.err.println("Rendered poster of " + prefs + " in " + (System.currentTimeMillis() - time) + " ms");
+	}
+	
+	public static Gson gson() {
+		GsonBuilder gsonBuilder = new GsonBuilder();
+		gsonBuilder.registerTypeAdapter(Expr.class, new ExprAdapter());
+		
+		return gsonBuilder.create();
+	}
+	
+	/**
+	 * @param filename
+	 * @return The EscapeTime in the file; the file may also contain a bookmark.
+	 * @throws IOException
+	 */
+	public static EscapeTime read(String filename) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(filename), "UTF-8");
+		
+		try {
+			JsonElement json = new JsonParser().parse(reader);
+			
+			if(json.isJsonObject()) {
+				JsonObject object = json.getAsJsonObject();
+				
+				if(object.has("prefs")) {
+					// This is a bookmark
+					json = object.get("prefs");
+				}
+			}
+			
+			return gson().fromJson(json, EscapeTime.class);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/** Calculates all pixels of sink and waits until they are drawn.
+	 */
+	public static void render(EscapeTime prefs, ArraySink sink, int threadCount) throws InterruptedException {
+		EscapeTimeCache cache = (EscapeTimeCache) prefs.createImgCache(sink);
+		
+		RasterTask task = new RasterTask(cache, threadCount);
+		task.start(cache);
+		task.join();
+		
+		task.publish();
+	}
+}
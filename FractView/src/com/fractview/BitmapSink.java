@@ -0,0 +1,74 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+
+import com.fractview.modes.PixelSink;
+
+/**
+ * Pixel sink that draws into a bitmap.
+ */
+public class BitmapSink implements PixelSink {
+	
+	private Bitmap bitmap;
+	
+	public BitmapSink(int width, int height) {
+		this.bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+	}
+	
+	public Bitmap bitmap() {
+		return bitmap;
+	}
+
+	@Override
+	public int width() {
+		return bitmap.getWidth();
+	}
+
+	@Override
+	public int height() {
+		return bitmap.getHeight();
+	}
+
+	// Drawing holds the lock of the bitmap so that it can be saved in the background.
+	
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		synchronized(bitmap) {
+			bitmap.setPixels(pixels, offset, stride, x, y, width, height);
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized(bitmap) {
+			bitmap.eraseColor(Color.TRANSPARENT);
+		}
+	}
+
+	@Override
+	public void resize(int width, int height) {
+		this.bitmap = null;
+		
+		System.gc();
+		
+		this.bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+	}
+}
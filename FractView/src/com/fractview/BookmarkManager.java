@@ -240,6 +240,7 @@ public class BookmarkManager {
 		int maxIter = 100;
 		double bailout = 64.;
 		double epsilon = 1e-9;
+		double cycleTolerance = 0; // no cycle detection
 
 		Affine affine = Affine.scalation(4, 4);
 		affine.preConcat(Affine.translation(-2, -2));
@@ -278,7 +279,7 @@ public class BookmarkManager {
 		
 		return new EscapeTime(affine, maxIter, function,
 				bailout, CommonOrbitToFloat.Length_Smooth, new OrbitTransfer(CommonTransfer.Log, new OrbitTransfer.Stats(0, 1)), bailoutPalette, 
-				epsilon, CommonOrbitToFloat.Last_Angle, new OrbitTransfer(CommonTransfer.None, null), lakePalette);
+				epsilon, cycleTolerance, CommonOrbitToFloat.Last_Angle, new OrbitTransfer(CommonTransfer.None, null), lakePalette);
 	}
 	
 	/*public static EscapeTime cczcpaczcp() {
@@ -97,7 +97,7 @@ public class EscapeTimeFragment extends Fragment {
 		
 		if(this.image == null) {
 			Log.d(TAG, "Image was not set yet");
-			this.image = (EscapeTimeCache) BookmarkManager.mandelbrot().createImgCache(INIT_WIDTH, INIT_HEIGHT);
+			this.image = (EscapeTimeCache) BookmarkManager.mandelbrot().createImgCache(new BitmapSink(INIT_WIDTH, INIT_HEIGHT));
 		}
 
         startTask(); // the first fractal should be in the history
@@ -213,7 +213,17 @@ public class EscapeTimeFragment extends Fragment {
 
 	
 	public Bitmap bitmap() {
-		return image.bitmap();
+		publish();
+		return ((BitmapSink) image.sink()).bitmap();
+	}
+	
+	/**
+	 * Draws the latest calculated parts of the image into the bitmap.
+	 */
+	public void publish() {
+		if(task != null) {
+			task.publish();
+		}
 	}
 	
 	public Preferences prefs() {
@@ -84,10 +84,14 @@ public class ImageViewFragment extends Fragment {
 			
 			@Override
 			public void run() {
+				// Check this first, otherwise the last tiles might not be published.
+				boolean running = taskFragment.taskIsRunning();
+				
 				// update view
+				taskFragment.publish();
 				imageView.invalidate();
 
-				if(taskFragment.taskIsRunning()) {
+				if(running) {
 					handler.postDelayed(this, MILLISECONDS_TILL_UPDATE);
 				} else {
 					// Log.d(this.toString(), "No further updates because task is not running anymore");
@@ -1,19 +1,27 @@
 package com.fractview.dialogs;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
 
 import com.fractview.EscapeTimeFragment;
 import com.fractview.ImageViewFragment;
 import com.fractview.R;
+import com.fractview.io.PngWriter;
 
 import android.app.AlertDialog;
 import android.app.WallpaperManager;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -27,6 +35,11 @@ public class SaveDialogFragment extends InputViewDialogFragment {
 
 	private static final String TAG = "SaveDialogFragment";
 	
+	// The bitmap is copied into the png in strips of this many rows.
+	private static final int STRIP_HEIGHT = 64;
+	
+	private static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+	
 	private EscapeTimeFragment taskFragment;
 	
 	private EditText filenameEditor;
@@ -83,52 +96,121 @@ public class SaveDialogFragment extends InputViewDialogFragment {
 			imageFile = new File(directory, filename + "(" + i + ").png");
 		}
 		
-		try {
-			FileOutputStream fos = new FileOutputStream(imageFile);
+		// The dialog is dismissed before the file is written, hence the task only keeps the application.
+		new SaveTask(getActivity().getApplicationContext(), bm, imageFile, 
+				shareCheckBox.isChecked(), wallpaperCheckBox.isChecked()).execute();
+		
+		return true;
+	}
+	
+	/**
+	 * Writes the png in the background because this takes seconds for big images.
+	 * Toast and intents are sent from the UI thread afterwards.
+	 */
+	private static class SaveTask extends AsyncTask<Void, Void, IOException> {
+		
+		private final Context context;
+		private final Bitmap bm;
+		private final File imageFile;
+		private final boolean share;
+		private final boolean wallpaper;
+		
+		SaveTask(Context context, Bitmap bm, File imageFile, boolean share, boolean wallpaper) {
+			this.context = context;
+			this.bm = bm;
+			this.imageFile = imageFile;
+			this.share = share;
+			this.wallpaper = wallpaper;
+		}
+		
+		@Override
+		protected IOException doInBackground(Void... params) {
+			try {
+				writePng(bm, imageFile);
+				
+				// If wallpaper is selected, set as wallpaper. The file is used 
+				// because the bitmap still might change.
+				if(wallpaper) {
+					InputStream in = new FileInputStream(imageFile);
+					
+					try {
+						WallpaperManager.getInstance(context).setStream(in);
+					} finally {
+						in.close();
+					}
+				}
+				
+				return null;
+			} catch(IOException e) {
+				return e;
+			}
+		}
+		
+		@Override
+		protected void onPostExecute(IOException e) {
+			if(e != null) {
+				// No activity for an alert dialog, it might be gone already.
+				Toast.makeText(context, "Error saving file: " + e.getMessage(), Toast.LENGTH_LONG).show();
+				Log.e(TAG, e.getMessage());
+				return;
+			}
 			
-			if(bm.compress(Bitmap.CompressFormat.PNG, 100, fos)) {
-				// Successfully written picture
-				fos.close();
+			// Successfully written picture
 
-				// TODO: If checked, create text file with description
-				
-				// Show toast
-				Toast.makeText(getActivity(), "Image saved as " + imageFile.getName(), Toast.LENGTH_SHORT).show();
+			// TODO: If checked, create text file with description
+			
+			// Show toast
+			Toast.makeText(context, "Image saved as " + imageFile.getName(), Toast.LENGTH_SHORT).show();
 
-				// Add it to the gallery
-				Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-				Uri contentUri = Uri.fromFile(imageFile);
-				mediaScanIntent.setData(contentUri);
-				getActivity().sendBroadcast(mediaScanIntent);
+			// Add it to the gallery
+			Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
+			Uri contentUri = Uri.fromFile(imageFile);
+			mediaScanIntent.setData(contentUri);
+			context.sendBroadcast(mediaScanIntent);
+			
+			// If share is selected share it
+			if(share) {
+				Intent shareIntent = new Intent(Intent.ACTION_SEND);
+				shareIntent.setType("image/png");
+				shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
 				
-				// If share is selected share it
-				if(shareCheckBox.isChecked()) {
-					Intent share = new Intent(Intent.ACTION_SEND);
-					share.setType("image/png");
-					share.putExtra(Intent.EXTRA_STREAM, contentUri);
-					startActivity(Intent.createChooser(share, "Share Image"));
-				}
+				Intent chooser = Intent.createChooser(shareIntent, "Share Image");
+				chooser.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK); // Started from the application
+				context.startActivity(chooser);
+			}
+		}
+	}
+	
+	/** Unlike Bitmap.compress, the bitmap is not copied as a whole 
+	 * and rows are compressed by all cores. Strips are copied while holding
+	 * the lock of the bitmap, BitmapSink does not draw into it meanwhile.
+	 */
+	private static void writePng(Bitmap bm, File file) throws IOException {
+		int width = bm.getWidth();
+		int height = bm.getHeight();
+		
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		
+		try {
+			PngWriter png = new PngWriter(out, width, height, 
+					COMPRESSION_LEVEL, Runtime.getRuntime().availableProcessors());
+			
+			int[] strip = new int[width * Math.min(STRIP_HEIGHT, height)];
+			
+			for(int y = 0; y < height; y += STRIP_HEIGHT) {
+				int rows = Math.min(STRIP_HEIGHT, height - y);
 				
-				// If wallpaper is selected, set as wallpaper
-				if(wallpaperCheckBox.isChecked()) {
-					WallpaperManager wallpaperManager = WallpaperManager.getInstance(getActivity());
-					wallpaperManager.setBitmap(bm);
+				synchronized(bm) {
+					bm.getPixels(strip, 0, width, 0, y, width, rows);
 				}
-			} else {
-				AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
-				builder.setMessage("Unknown error calling 'compress' on bitmap").setTitle("Error saving file").setNeutralButton("Close", null).create().show();
 				
-				Log.w(TAG, "Could not write image file");
-				fos.close();
-				return false;
+				png.writeRows(strip, 0, rows);
 			}
-		} catch(IOException e) {
-			AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
-			builder.setMessage(e.getMessage()).setTitle("Error saving file").setNeutralButton("Close", null).create().show();
-			Log.e(TAG, e.getMessage());
+			
+			png.finish();
+		} finally {
+			out.close();
 		}
-		
-		return true;
 	}
 	
 	@Override
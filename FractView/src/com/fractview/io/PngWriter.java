@@ -0,0 +1,425 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes ARGB-colors as 8-bit RGBA PNG without depending on Android or AWT.
+ * The compressed data is split into IDAT chunks while it is written, hence
+ * it is never kept in memory as a whole. Rows can be written in several
+ * parts so that images larger than the heap can be streamed.
+ * 
+ * With several threads, groups of rows are deflated in parallel (like pigz). Each
+ * group ends with a sync flush so that the blocks can be concatenated to one zlib 
+ * stream, and it uses the end of the previous group as dictionary so that little 
+ * compression is lost. This needs Deflater.SYNC_FLUSH (Java 7, Android 4.4), 
+ * otherwise one thread is used.
+ */
+public class PngWriter {
+	
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+	
+	private static final int CHUNK_SIZE = 1 << 16;
+	
+	private static final int COLOR_TYPE_RGBA = 6;
+	private static final int FILTER_NONE = 0;
+	
+	// Uncompressed bytes that are deflated by one thread
+	private static final int GROUP_SIZE = 1 << 18;
+	
+	// Maximum distance of deflate, hence the longest useful dictionary.
+	private static final int DICTIONARY_SIZE = 1 << 15;
+	
+	private static final boolean SYNC_FLUSH_SUPPORTED = syncFlushSupported();
+	
+	/**
+	 * @param argb Colors row by row
+	 * @param width
+	 * @param height
+	 * @param out The stream is not closed.
+	 * @throws IOException
+	 */
+	public static void write(int[] argb, int width, int height, OutputStream out) throws IOException {
+		PngWriter writer = new PngWriter(out, width, height);
+		writer.writeRows(argb, 0, height);
+		writer.finish();
+	}
+	
+	private static boolean syncFlushSupported() {
+		try {
+			Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+			return true;
+		} catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private DataOutputStream data;
+	
+	private int width;
+	private int height;
+	private int rowCount = 0;
+	
+	private int level;
+	
+	private byte[] row;
+	
+	// Used with one thread
+	private Deflater deflater;
+	private DeflaterOutputStream deflated;
+	
+	// Used with several threads
+	private ExecutorService executor;
+	private ChunkStream idat;
+	private Adler32 adler;
+	
+	private byte[] group;
+	private int groupLength;
+	private byte[] dictionary; // end of the last group
+	
+	// Compressed groups in the order of the image
+	private LinkedList<Future<byte[]>> pending;
+	private int maxPending;
+	
+	/**
+	 * Writes the header with default compression and one thread. The image 
+	 * must be completed by writing all rows and calling finish.
+	 * @param out The stream is not closed.
+	 * @param width
+	 * @param height
+	 * @throws IOException
+	 */
+	public PngWriter(OutputStream out, int width, int height) throws IOException {
+		this(out, width, height, Deflater.DEFAULT_COMPRESSION, 1);
+	}
+	
+	/**
+	 * @param out The stream is not closed.
+	 * @param width
+	 * @param height
+	 * @param level Compression level of Deflater
+	 * @param threadCount Number of threads that deflate groups of rows
+	 * @throws IOException
+	 */
+	public PngWriter(OutputStream out, int width, int height, int level, int threadCount) throws IOException {
+		this.data = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+		this.level = level;
+		
+		data.write(SIGNATURE);
+		
+		ChunkStream header = new ChunkStream(data, "IHDR");
+		DataOutputStream ihdr = new DataOutputStream(header);
+		ihdr.writeInt(width);
+		ihdr.writeInt(height);
+		ihdr.writeByte(8); // bit depth
+		ihdr.writeByte(COLOR_TYPE_RGBA);
+		ihdr.writeByte(0); // compression
+		ihdr.writeByte(0); // filter method
+		ihdr.writeByte(0); // no interlace
+		header.close();
+		
+		row = new byte[1 + 4 * width];
+		row[0] = FILTER_NONE;
+		
+		if(threadCount > 1 && SYNC_FLUSH_SUPPORTED) {
+			executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PngWriter");
+					thread.setDaemon(true); // in case finish is never called
+					return thread;
+				}
+			});
+			
+			idat = new ChunkStream(data, "IDAT");
+			adler = new Adler32();
+			
+			pending = new LinkedList<Future<byte[]>>();
+			maxPending = 2 * threadCount;
+			
+			group = new byte[Math.max(GROUP_SIZE, row.length)];
+			
+			writeZlibHeader();
+		} else {
+			deflater = new Deflater(level);
+			deflated = new DeflaterOutputStream(new ChunkStream(data, "IDAT"), deflater, CHUNK_SIZE);
+		}
+	}
+	
+	/**
+	 * Appends rows to the image.
+	 * @param argb Colors of the rows, each row has width colors
+	 * @param offset Index of the first color in argb
+	 * @param rows Number of rows
+	 * @throws IOException
+	 */
+	public void writeRows(int[] argb, int offset, int rows) throws IOException {
+		if(rowCount + rows > height) {
+			throw new IllegalArgumentException("image has only " + height + " rows");
+		}
+		
+		for(int y = 0; y < rows; y++) {
+			for(int x = 0, i = 1; x < width; x++) {
+				int color = argb[offset + y * width + x];
+				
+				row[i++] = (byte) (color >> 16);
+				row[i++] = (byte) (color >> 8);
+				row[i++] = (byte) color;
+				row[i++] = (byte) (color >> 24);
+			}
+			
+			if(executor == null) {
+				deflated.write(row);
+			} else {
+				if(groupLength + row.length > group.length) {
+					submitGroup(false);
+				}
+				
+				System.arraycopy(row, 0, group, groupLength, row.length);
+				groupLength += row.length;
+			}
+		}
+		
+		rowCount += rows;
+	}
+	
+	/**
+	 * Writes the remaining data after the last row.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if(rowCount != height) {
+			throw new IllegalStateException("only " + rowCount + " of " + height + " rows were written");
+		}
+		
+		if(executor == null) {
+			deflated.close(); // finishes deflater and writes last chunk
+			deflater.end();
+		} else {
+			try {
+				submitGroup(true);
+				
+				while(!pending.isEmpty()) {
+					writeGroup();
+				}
+			} finally {
+				executor.shutdown();
+			}
+			
+			DataOutputStream trailer = new DataOutputStream(idat);
+			trailer.writeInt((int) adler.getValue());
+			
+			idat.close();
+		}
+		
+		new ChunkStream(data, "IEND").close();
+		
+		data.flush();
+	}
+	
+	private void writeZlibHeader() throws IOException {
+		int cmf = 0x78; // deflate with 32K window
+		
+		int flevel;
+		
+		if(level == Deflater.DEFAULT_COMPRESSION) flevel = 2;
+		else if(level < 2) flevel = 0;
+		else if(level < 6) flevel = 1;
+		else if(level == 6) flevel = 2;
+		else flevel = 3;
+		
+		int flg = flevel << 6;
+		flg += 31 - (cmf << 8 | flg) % 31; // check bits
+		
+		idat.write(cmf);
+		idat.write(flg);
+	}
+	
+	/** Deflates the current group in the background and starts a new one.
+	 */
+	private void submitGroup(boolean last) throws IOException {
+		adler.update(group, 0, groupLength);
+		
+		pending.add(executor.submit(new Group(group, groupLength, dictionary, last)));
+		
+		if(!last) {
+			int start = Math.max(0, groupLength - DICTIONARY_SIZE);
+			
+			dictionary = new byte[groupLength - start];
+			System.arraycopy(group, start, dictionary, 0, dictionary.length);
+			
+			group = new byte[group.length];
+			groupLength = 0;
+		}
+		
+		while(pending.size() > maxPending) {
+			writeGroup();
+		}
+	}
+	
+	/** Waits for the oldest group and writes it.
+	 */
+	private void writeGroup() throws IOException {
+		try {
+			idat.write(pending.removeFirst().get());
+		} catch(InterruptedException e) {
+			throw new IOException("interrupted while compressing");
+		} catch(ExecutionException e) {
+			throw new IOException("compression failed: " + e.getCause());
+		}
+	}
+	
+	/**
+	 * Deflates a group of rows into raw deflate blocks. The blocks end at a byte 
+	 * boundary (sync flush) and only those of the last group are final.
+	 */
+	private class Group implements Callable<byte[]> {
+		private byte[] data;
+		private int length;
+		private byte[] dictionary;
+		private boolean last;
+		
+		Group(byte[] data, int length, byte[] dictionary, boolean last) {
+			this.data = data;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.last = last;
+		}
+		
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+			
+			try {
+				if(dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				
+				deflater.setInput(data, 0, length);
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+				byte[] buffer = new byte[CHUNK_SIZE];
+				
+				if(last) {
+					deflater.finish();
+					
+					while(!deflater.finished()) {
+						out.write(buffer, 0, deflater.deflate(buffer));
+					}
+				} else {
+					// The output is complete when the buffer is not filled anymore.
+					int count;
+					
+					do {
+						count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						out.write(buffer, 0, count);
+					} while(count == buffer.length);
+				}
+				
+				return out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * Collects bytes and writes them as chunks of the given type. A chunk is written
+	 * whenever CHUNK_SIZE bytes are collected and in close (also if it is empty but 
+	 * no chunk was written before). close does not close the underlying stream.
+	 */
+	static class ChunkStream extends OutputStream {
+		
+		private DataOutputStream out;
+		private byte[] type;
+		
+		private byte[] buffer = new byte[CHUNK_SIZE];
+		private int length = 0;
+		private boolean written = false;
+		
+		private CRC32 crc = new CRC32();
+		
+		ChunkStream(DataOutputStream out, String type) {
+			this.out = out;
+			this.type = type.getBytes();
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if(length == buffer.length) {
+				writeChunk();
+			}
+			
+			buffer[length++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				if(length == buffer.length) {
+					writeChunk();
+				}
+				
+				int n = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, n);
+				
+				length += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		private void writeChunk() throws IOException {
+			out.writeInt(length);
+			out.write(type);
+			out.write(buffer, 0, length);
+			
+			crc.reset();
+			crc.update(type);
+			crc.update(buffer, 0, length);
+			
+			out.writeInt((int) crc.getValue());
+			
+			length = 0;
+			written = true;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(length > 0 || !written) {
+				writeChunk();
+			}
+		}
+	}
+}
@@ -16,6 +16,8 @@
  */
 package com.fractview.math;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 public class Affine {
 	
@@ -45,9 +47,22 @@ public class Affine {
 		return new Affine(m);
 	}
 	
+	// Digits of the translation below the size of the view.
+	private static final int TRANSLATION_DIGITS = 20;
+	
 	private double[] m;
 	private double det;
 	
+	// Translation with more digits than m[2] and m[5] (they are its rounded values) so 
+	// that the center of deep zooms is not lost. Null if the translation is exactly 
+	// m[2], m[5] (eg in old bookmarks).
+	private BigDecimal tx;
+	private BigDecimal ty;
+	
+	// tx and ty rounded to double-double, created by the first map that needs them.
+	// Both are set before the array is published in the volatile field.
+	private transient volatile DoubleDouble[] ddt;
+	
 	private Affine(double...m) {
 		this.m = m;
 		update();		
@@ -56,23 +71,46 @@ public class Affine {
 	public Affine concat(Affine a0, Affine a1) {
 		double m0 = a0.m[0] * a1.m[0] + a0.m[1] * a1.m[3];
 		double m1 = a0.m[0] * a1.m[1] + a0.m[1] * a1.m[4];
-		double m2 = a0.m[0] * a1.m[2] + a0.m[1] * a1.m[5] + a0.m[2];
+		
 		double m3 = a0.m[3] * a1.m[0] + a0.m[4] * a1.m[3];
 		double m4 = a0.m[3] * a1.m[1] + a0.m[4] * a1.m[4];
-		double m5 = a0.m[3] * a1.m[2] + a0.m[4] * a1.m[5] + a0.m[5];
+		
+		// The translation is not rounded to doubles.
+		BigDecimal tx = new BigDecimal(a0.m[0]).multiply(a1.tx())
+				.add(new BigDecimal(a0.m[1]).multiply(a1.ty())).add(a0.tx());
+		BigDecimal ty = new BigDecimal(a0.m[3]).multiply(a1.tx())
+				.add(new BigDecimal(a0.m[4]).multiply(a1.ty())).add(a0.ty());
 		
 		m[0] = m0;
 		m[1] = m1;
-		m[2] = m2;
 		m[3] = m3;
 		m[4] = m4;
-		m[5] = m5;
 		
 		update();
 		
+		// Digits far below the size of the view do not matter.
+		double scale = Math.sqrt(Math.abs(det));
+		int places = TRANSLATION_DIGITS + (scale > 0 && scale < Double.POSITIVE_INFINITY ? (int) Math.ceil(-Math.log10(scale)) : 0);
+		
+		this.tx = tx.scale() > places ? tx.setScale(places, RoundingMode.HALF_EVEN) : tx;
+		this.ty = ty.scale() > places ? ty.setScale(places, RoundingMode.HALF_EVEN) : ty;
+		
+		m[2] = this.tx.doubleValue();
+		m[5] = this.ty.doubleValue();
+		
+		this.ddt = null;
+		
 		return this;
 	}
 	
+	private BigDecimal tx() {
+		return tx != null ? tx : new BigDecimal(m[2]);
+	}
+	
+	private BigDecimal ty() {
+		return ty != null ? ty : new BigDecimal(m[5]);
+	}
+	
 	private void update() {
 		this.det = m[0] * m[4] - m[1] * m[3];
 	}
@@ -119,8 +157,40 @@ public class Affine {
 		return dest;
 	}
 
+	/**
+	 * Like map but in double-double precision, hence it uses all digits of
+	 * the translation that fit into it.
+	 */
+	public DoubleDoubleCplx map(double x, double y, DoubleDoubleCplx dest) {
+		DoubleDouble[] ddt = this.ddt;
+		
+		if(ddt == null) {
+			// Several threads might do this but they all get the same values.
+			ddt = new DoubleDouble[]{ new DoubleDouble().set(tx()), new DoubleDouble().set(ty()) };
+			this.ddt = ddt;
+		}
+		
+		dest.re().mulAdd(m[0], x, ddt[0]).mulAdd(m[1], y, dest.re());
+		dest.im().mulAdd(m[3], x, ddt[1]).mulAdd(m[4], y, dest.im());
+		
+		return dest;
+	}
+
 	public Cplx center() {
 		Cplx center = new Cplx((m[0] + m[1]) / 2. + m[2], (m[3] + m[4]) / 2. + m[5]);
 		return center;
 	}
+	
+	/**
+	 * @return Real and imaginary part of the center without rounding them to 
+	 * doubles. Deep zooms need them for their reference point.
+	 */
+	public BigDecimal[] preciseCenter() {
+		BigDecimal half = new BigDecimal(0.5);
+		
+		return new BigDecimal[]{
+				new BigDecimal(m[0]).add(new BigDecimal(m[1])).multiply(half).add(tx()),
+				new BigDecimal(m[3]).add(new BigDecimal(m[4])).multiply(half).add(ty())
+		};
+	}
 }
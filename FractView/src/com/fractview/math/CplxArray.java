@@ -0,0 +1,144 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.math;
+
+/**
+ * A sequence of complex numbers stored as two arrays of doubles (real and imaginary 
+ * parts). This avoids one object per element and keeps orbits in a contiguous
+ * piece of memory. The arrays grow on demand up to a maximum capacity.
+ * 
+ * A ring (created by ring(size)) has a fixed size and only keeps the most recent
+ * elements, index i refers to the element at i modulo the size. 
+ */
+public class CplxArray {
+	
+	private static final int INIT_CAPACITY = 64;
+	
+	private double[] re;
+	private double[] im;
+	
+	private int maxCapacity;
+	
+	// -1 if the array is not a ring.
+	private int mask;
+	
+	/**
+	 * @param maxCapacity The array will never grow beyond this size.
+	 */
+	public CplxArray(int maxCapacity) {
+		this(Math.min(INIT_CAPACITY, maxCapacity), maxCapacity, -1);
+	}
+	
+	private CplxArray(int capacity, int maxCapacity, int mask) {
+		this.maxCapacity = maxCapacity;
+		this.mask = mask;
+		
+		this.re = new double[capacity];
+		this.im = new double[capacity];
+	}
+	
+	/**
+	 * @param size Number of most recent elements that are kept.
+	 * @return A new ring containing at least size elements.
+	 */
+	public static CplxArray ring(int size) {
+		int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		return new CplxArray(capacity, capacity, capacity - 1);
+	}
+	
+	public boolean isRing() {
+		return mask != -1;
+	}
+	
+	public int capacity() {
+		return re.length;
+	}
+	
+	/** Makes sure that index i can be written.
+	 * @param i
+	 */
+	public void ensureIndex(int i) {
+		if((i & mask) >= re.length) {
+			grow(i);
+		}
+	}
+	
+	private void grow(int i) {
+		if(i >= maxCapacity) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		
+		int capacity = (int) Math.min(Math.max(2L * re.length, i + 1L), (long) maxCapacity);
+		
+		double[] re = new double[capacity];
+		double[] im = new double[capacity];
+		
+		System.arraycopy(this.re, 0, re, 0, this.re.length);
+		System.arraycopy(this.im, 0, im, 0, this.im.length);
+		
+		this.re = re;
+		this.im = im;
+	}
+	
+	public double re(int i) {
+		return re[i & mask];
+	}
+	
+	public double im(int i) {
+		return im[i & mask];
+	}
+	
+	public void set(int i, double re, double im) {
+		this.re[i & mask] = re;
+		this.im[i & mask] = im;
+	}
+	
+	public void set(int i, Cplx c) {
+		set(i, c.re(), c.im());
+	}
+	
+	public Cplx get(int i, Cplx dest) {
+		return dest.set(re(i), im(i));
+	}
+	
+	public double absSqr(int i) {
+		double re = re(i), im = im(i);
+		return re * re + im * im;
+	}
+	
+	public double abs(int i) {
+		return Math.hypot(im(i), re(i));
+	}
+	
+	public double arg(int i) {
+		double arc = Math.atan2(im(i), re(i));
+		if(arc < 0) arc += 2 * Math.PI;
+		return arc;
+	}
+	
+	/**
+	 * @param i
+	 * @param j
+	 * @return Squared distance of the ith and jth element
+	 */
+	public double distSqr(int i, int j) {
+		double dr = re(i) - re(j);
+		double di = im(i) - im(j);
+		
+		return dr * dr + di * di;
+	}
+}
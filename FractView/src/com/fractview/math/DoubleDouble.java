@@ -0,0 +1,503 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.math;
+
+import java.math.BigDecimal;
+
+/**
+ * A real number that is the unevaluated sum hi + lo of two doubles where lo is
+ * at most half an ulp of hi (double-double arithmetic). It has about 32 significant
+ * digits and is much faster than BigDecimal because all operations are done by
+ * a few double operations (the algorithms are those of Dekker and of the QD library
+ * by Hida, Li and Bailey).
+ *
+ * Like Cplx, instances are mutable and operations store their result in this.
+ * Operations first read all their arguments, hence this may be an argument.
+ */
+public class DoubleDouble {
+
+	private static final double SPLITTER = 134217729.; // 2^27 + 1
+
+	// log 2, pi / 2 and 2 pi
+	private static final double LN2_HI = 6.931471805599452862e-01;
+	private static final double LN2_LO = 2.319046813846299558e-17;
+	private static final double PI_2_HI = 1.570796326794896558e+00;
+	private static final double PI_2_LO = 6.123233995736766036e-17;
+	private static final double PI_2_LO2 = -1.497384904859169833e-33; // Third part for sin and cos
+	private static final double PI2_HI = 6.283185307179586232e+00;
+	private static final double PI2_LO = 2.449293598294706414e-16;
+
+	// exp reduces its argument to |r| <= log(2) / 1024, sin and cos to |r| <= pi / 4.
+	// These are the numbers of terms of the taylor series so that the remaining
+	// terms are below the precision.
+	private static final int EXP_TERMS = 10;
+	private static final int SIN_TERMS = 15;
+	
+	// Above 2^52 * pi / 2 the number of quarter periods in sin and cos is not exact in double.
+	private static final double LARGE_ARGUMENT = 4503599627370496. * PI_2_HI;
+
+	// 1 / n!
+	private static final double[] INV_FACT_HI = new double[2 * SIN_TERMS];
+	private static final double[] INV_FACT_LO = new double[2 * SIN_TERMS];
+
+	static {
+		DoubleDouble f = new DoubleDouble(1);
+
+		for(int n = 0; n < INV_FACT_HI.length; n++) {
+			if(n > 1) f.div(f.hi, f.lo, n, 0);
+
+			INV_FACT_HI[n] = f.hi;
+			INV_FACT_LO[n] = f.lo;
+		}
+	}
+
+	private double hi;
+	private double lo;
+
+	public DoubleDouble() {
+		this(0);
+	}
+
+	public DoubleDouble(double d) {
+		this.hi = d;
+		this.lo = 0;
+	}
+
+	public double hi() {
+		return hi;
+	}
+
+	public double lo() {
+		return lo;
+	}
+
+	public DoubleDouble set(double d) {
+		this.hi = d;
+		this.lo = 0;
+		return this;
+	}
+
+	/**
+	 * hi and lo must be normalized, ie lo is at most half an ulp of hi.
+	 */
+	public DoubleDouble set(double hi, double lo) {
+		this.hi = hi;
+		this.lo = lo;
+		return this;
+	}
+
+	public DoubleDouble set(DoubleDouble that) {
+		return set(that.hi, that.lo);
+	}
+
+	/**
+	 * Rounds d to double-double precision.
+	 */
+	public DoubleDouble set(BigDecimal d) {
+		double hi = d.doubleValue();
+
+		if(Double.isInfinite(hi)) {
+			return set(hi);
+		}
+
+		return set(hi, d.subtract(new BigDecimal(hi)).doubleValue());
+	}
+
+	public BigDecimal bigDecimalValue() {
+		return new BigDecimal(hi).add(new BigDecimal(lo));
+	}
+
+	/**
+	 * Sets this to s + e which are not normalized yet. If the sum overflows
+	 * (or e is not finite), the error e is meaningless and dropped.
+	 */
+	private DoubleDouble normalize(double s, double e) {
+		double h = s + e;
+
+		if(h - h != 0) {
+			this.hi = s;
+			this.lo = 0;
+		} else {
+			this.hi = h;
+			this.lo = e - (h - s);
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return The error of the product p = a * b, ie. a * b - p.
+	 */
+	private static double productError(double a, double b, double p) {
+		double t = SPLITTER * a;
+		double aHi = t - (t - a);
+		double aLo = a - aHi;
+
+		t = SPLITTER * b;
+		double bHi = t - (t - b);
+		double bLo = b - bHi;
+
+		return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+	}
+
+	/**
+	 * @return 2^e for -1022 <= e <= 1023.
+	 */
+	private static double pow2(int e) {
+		return Double.longBitsToDouble((long) (e + 1023) << 52);
+	}
+
+	// Basic arithmetics
+
+	public DoubleDouble add(double aHi, double aLo, double bHi, double bLo) {
+		// Both parts are added without error and then combined.
+		double s = aHi + bHi;
+		double v = s - aHi;
+		double e = (aHi - (s - v)) + (bHi - v);
+
+		double t = aLo + bLo;
+		double w = t - aLo;
+		double f = (aLo - (t - w)) + (bLo - w);
+
+		e += t;
+
+		double u = s + e;
+		e -= u - s;
+
+		return normalize(u, e + f);
+	}
+
+	public DoubleDouble sub(double aHi, double aLo, double bHi, double bLo) {
+		return add(aHi, aLo, -bHi, -bLo);
+	}
+
+	public DoubleDouble mul(double aHi, double aLo, double bHi, double bLo) {
+		double p = aHi * bHi;
+		return normalize(p, productError(aHi, bHi, p) + (aHi * bLo + aLo * bHi));
+	}
+
+	/**
+	 * Sets this to a * b + c where the product a * b is exact.
+	 */
+	public DoubleDouble mulAdd(double a, double b, double cHi, double cLo) {
+		double p = a * b;
+		return add(p, productError(a, b, p), cHi, cLo);
+	}
+
+	public DoubleDouble sqr(double aHi, double aLo) {
+		double p = aHi * aHi;
+		return normalize(p, productError(aHi, aHi, p) + 2. * aHi * aLo);
+	}
+
+	public DoubleDouble div(double aHi, double aLo, double bHi, double bLo) {
+		double q1 = aHi / bHi;
+
+		if(q1 - q1 != 0) {
+			// Division by 0 or overflow.
+			return set(q1);
+		}
+
+		// Long division with three partial quotients.
+		mul(bHi, bLo, q1, 0);
+		sub(aHi, aLo, hi, lo);
+
+		double q2 = hi / bHi;
+
+		double rHi = hi, rLo = lo;
+		mul(bHi, bLo, q2, 0);
+		sub(rHi, rLo, hi, lo);
+
+		double q3 = hi / bHi;
+
+		double s = q1 + q2;
+
+		return add(s, q2 - (s - q1), q3, 0);
+	}
+
+	public DoubleDouble neg(double aHi, double aLo) {
+		return set(-aHi, -aLo);
+	}
+
+	public DoubleDouble abs(double aHi, double aLo) {
+		return aHi < 0 ? set(-aHi, -aLo) : set(aHi, aLo);
+	}
+
+	public DoubleDouble floor(double aHi, double aLo) {
+		double h = Math.floor(aHi);
+
+		if(h == aHi) {
+			// hi is an integer, hence lo decides.
+			return normalize(h, Math.floor(aLo));
+		}
+
+		return set(h);
+	}
+
+	public DoubleDouble sqrt(double aHi, double aLo) {
+		if(!(aHi > 0) || Double.isInfinite(aHi)) {
+			// 0, negative numbers, infinity and NaN
+			return set(Math.sqrt(aHi));
+		}
+
+		// One newton step from the double precision square root x:
+		// x + (a - x^2) / 2x
+		double inv = 1. / Math.sqrt(aHi);
+		double x = aHi * inv;
+
+		sqr(x, 0);
+		sub(aHi, aLo, hi, lo);
+
+		return add(x, 0, hi * inv * 0.5, 0);
+	}
+
+	// Transcendental functions
+
+	public DoubleDouble exp(double aHi, double aLo) {
+		if(aHi > 709.8) {
+			return set(Double.POSITIVE_INFINITY);
+		}
+
+		if(aHi < -745.2) {
+			return set(0);
+		}
+
+		if(aHi != aHi) {
+			return set(Double.NaN);
+		}
+
+		// exp(a) = 2^k * exp(r)^1024 where r = (a - k log 2) / 1024
+		double k = Math.floor(aHi / LN2_HI + 0.5);
+
+		mul(LN2_HI, LN2_LO, k, 0);
+		sub(aHi, aLo, hi, lo);
+
+		double rHi = hi / 1024., rLo = lo / 1024.;
+
+		// exp(r) - 1 by its taylor series (horner scheme).
+		set(INV_FACT_HI[EXP_TERMS], INV_FACT_LO[EXP_TERMS]);
+
+		for(int n = EXP_TERMS - 1; n > 0; n--) {
+			mul(hi, lo, rHi, rLo);
+			add(hi, lo, INV_FACT_HI[n], INV_FACT_LO[n]);
+		}
+
+		mul(hi, lo, rHi, rLo);
+
+		// s = exp(r) - 1 is kept instead of exp(r) because this keeps the
+		// digits of small values. (s + 1)^2 - 1 = s^2 + 2s.
+		for(int i = 0; i < 10; i++) {
+			double sHi = hi, sLo = lo;
+			sqr(sHi, sLo);
+			add(hi, lo, 2. * sHi, 2. * sLo);
+		}
+
+		add(hi, lo, 1, 0);
+
+		// Multiply by 2^k in two steps because 2^k itself might overflow.
+		double f0 = pow2((int) k / 2);
+		double f1 = pow2((int) k - (int) k / 2);
+
+		return set(hi * f0 * f1, lo * f0 * f1);
+	}
+
+	public DoubleDouble log(double aHi, double aLo) {
+		if(!(aHi > 0) || Double.isInfinite(aHi)) {
+			return set(Math.log(aHi));
+		}
+
+		// One newton step from the double precision logarithm x:
+		// x + a * exp(-x) - 1
+		double x = Math.log(aHi);
+
+		exp(-x, 0);
+		mul(hi, lo, aHi, aLo);
+		add(hi, lo, -1, 0);
+
+		return add(hi, lo, x, 0);
+	}
+
+	public DoubleDouble sin(double aHi, double aLo) {
+		return sinCos(aHi, aLo, 0);
+	}
+
+	public DoubleDouble cos(double aHi, double aLo) {
+		return sinCos(aHi, aLo, 1);
+	}
+
+	/**
+	 * @param quadrant 0 for sin and 1 for cos (cos(a) = sin(a + pi / 2))
+	 */
+	private DoubleDouble sinCos(double aHi, double aLo, int quadrant) {
+		if(aHi - aHi != 0) {
+			return set(Double.NaN);
+		}
+
+		if(Math.abs(aHi) >= LARGE_ARGUMENT) {
+			// The digits of such arguments are at best integers, hence double precision is
+			// all we can do: sin(hi + lo) = sin(hi) cos(lo) + cos(hi) sin(lo) and Math 
+			// reduces hi exactly.
+			double s = Math.sin(aHi), c = Math.cos(aHi);
+			double sLo = Math.sin(aLo), cLo = Math.cos(aLo);
+
+			return set(quadrant == 0 ? s * cLo + c * sLo : c * cLo - s * sLo);
+		}
+
+		// r = a - j * pi / 2 with |r| <= pi / 4. pi / 2 has three parts and each
+		// product with j is exact so that no digits of r are lost if j is large.
+		double j = Math.rint(aHi / PI_2_HI);
+
+		mulAdd(-j, PI_2_HI, aHi, aLo);
+		mulAdd(-j, PI_2_LO, hi, lo);
+		mulAdd(-j, PI_2_LO2, hi, lo);
+
+		double rHi = hi, rLo = lo;
+
+		quadrant = (int) (((long) j + quadrant) & 3);
+
+		// In odd quadrants the cosine of r is needed.
+		int offset = quadrant & 1;
+
+		// Taylor series in r^2 (horner scheme) of sin(r) / r which is the sum of 
+		// (-1)^k r^2k / (2k + 1)! or of cos(r) which is the sum of (-1)^k r^2k / (2k)!
+		sqr(rHi, rLo);
+
+		double r2Hi = hi, r2Lo = lo;
+
+		int k = SIN_TERMS - 1;
+
+		set(INV_FACT_HI[2 * k + 1 - offset], INV_FACT_LO[2 * k + 1 - offset]);
+
+		for(k--; k >= 0; k--) {
+			mul(hi, lo, -r2Hi, -r2Lo);
+			add(hi, lo, INV_FACT_HI[2 * k + 1 - offset], INV_FACT_LO[2 * k + 1 - offset]);
+		}
+
+		if(offset == 0) {
+			mul(hi, lo, rHi, rLo);
+		}
+
+		return quadrant >= 2 ? set(-hi, -lo) : this;
+	}
+
+	/**
+	 * Angle of the point (x, y) in the range -pi to pi like Math.atan2.
+	 */
+	public DoubleDouble atan2(double yHi, double yLo, double xHi, double xLo) {
+		double z = Math.atan2(yHi, xHi);
+
+		if(xHi - xHi != 0 || yHi - yHi != 0 || (xHi == 0 && yHi == 0)) {
+			return set(z);
+		}
+
+		// One newton step from the double precision angle z.
+		// (x, y) / r is (cos z, sin z) and we use the one that is more sensitive.
+		sqr(xHi, xLo);
+
+		double h = hi, l = lo;
+
+		sqr(yHi, yLo);
+		add(h, l, hi, lo);
+		sqrt(hi, lo);
+
+		double rHi = hi, rLo = lo;
+
+		if(Math.abs(xHi) > Math.abs(yHi)) {
+			// z += (y / r - sin z) / cos z
+			div(yHi, yLo, rHi, rLo);
+			h = hi; l = lo;
+			sin(z, 0);
+			sub(h, l, hi, lo);
+			h = hi; l = lo;
+			cos(z, 0);
+			div(h, l, hi, lo);
+
+			return add(z, 0, hi, lo);
+		} else {
+			// z -= (x / r - cos z) / sin z
+			div(xHi, xLo, rHi, rLo);
+			h = hi; l = lo;
+			cos(z, 0);
+			sub(h, l, hi, lo);
+			h = hi; l = lo;
+			sin(z, 0);
+			div(h, l, hi, lo);
+
+			return sub(z, 0, hi, lo);
+		}
+	}
+
+	/**
+	 * Like atan2, but the angle is in the range 0 to 2 pi like Cplx.arg.
+	 */
+	public DoubleDouble arg(double yHi, double yLo, double xHi, double xLo) {
+		atan2(yHi, yLo, xHi, xLo);
+		return hi < 0 ? add(hi, lo, PI2_HI, PI2_LO) : this;
+	}
+
+	public DoubleDouble add(DoubleDouble a, DoubleDouble b) {
+		return add(a.hi, a.lo, b.hi, b.lo);
+	}
+
+	public DoubleDouble sub(DoubleDouble a, DoubleDouble b) {
+		return sub(a.hi, a.lo, b.hi, b.lo);
+	}
+
+	public DoubleDouble mul(DoubleDouble a, DoubleDouble b) {
+		return mul(a.hi, a.lo, b.hi, b.lo);
+	}
+
+	public DoubleDouble mulAdd(double a, double b, DoubleDouble c) {
+		return mulAdd(a, b, c.hi, c.lo);
+	}
+
+	public DoubleDouble div(DoubleDouble a, DoubleDouble b) {
+		return div(a.hi, a.lo, b.hi, b.lo);
+	}
+
+	public DoubleDouble sqr(DoubleDouble a) {
+		return sqr(a.hi, a.lo);
+	}
+
+	public DoubleDouble sqrt(DoubleDouble a) {
+		return sqrt(a.hi, a.lo);
+	}
+
+	public DoubleDouble exp(DoubleDouble a) {
+		return exp(a.hi, a.lo);
+	}
+
+	public DoubleDouble log(DoubleDouble a) {
+		return log(a.hi, a.lo);
+	}
+
+	public DoubleDouble sin(DoubleDouble a) {
+		return sin(a.hi, a.lo);
+	}
+
+	public DoubleDouble cos(DoubleDouble a) {
+		return cos(a.hi, a.lo);
+	}
+
+	public DoubleDouble atan2(DoubleDouble y, DoubleDouble x) {
+		return atan2(y.hi, y.lo, x.hi, x.lo);
+	}
+
+	public String toString() {
+		// BigDecimal cannot represent infinity and NaN
+		return hi - hi != 0 ? String.valueOf(hi) : bigDecimalValue().toString();
+	}
+}
@@ -0,0 +1,473 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.math;
+
+/**
+ * Complex numbers in double-double precision (see DoubleDouble). The operations
+ * are the same as in Cplx and they use the same formulas so that both agree
+ * in double precision.
+ *
+ * Operations first read all their arguments, hence this may be an argument.
+ */
+public class DoubleDoubleCplx {
+
+	private final DoubleDouble re = new DoubleDouble();
+	private final DoubleDouble im = new DoubleDouble();
+
+	// Scratch for intermediate results
+	private final DoubleDouble t = new DoubleDouble();
+
+	public DoubleDoubleCplx() {}
+
+	public DoubleDoubleCplx(double re, double im) {
+		set(re, im);
+	}
+
+	/**
+	 * The parts must not be modified from outside unless they are
+	 * used to set this number.
+	 */
+	public DoubleDouble re() {
+		return re;
+	}
+
+	public DoubleDouble im() {
+		return im;
+	}
+
+	public DoubleDoubleCplx set(double re, double im) {
+		this.re.set(re);
+		this.im.set(im);
+		return this;
+	}
+
+	public DoubleDoubleCplx set(double reHi, double reLo, double imHi, double imLo) {
+		this.re.set(reHi, reLo);
+		this.im.set(imHi, imLo);
+		return this;
+	}
+
+	public DoubleDoubleCplx set(DoubleDoubleCplx that) {
+		return set(that.re.hi(), that.re.lo(), that.im.hi(), that.im.lo());
+	}
+
+	/**
+	 * @return This number rounded to double precision
+	 */
+	public Cplx get(Cplx dest) {
+		return dest.set(re.hi(), im.hi());
+	}
+
+	// Binary operations
+
+	public DoubleDoubleCplx add(DoubleDoubleCplx a, DoubleDoubleCplx b) {
+		re.add(a.re, b.re);
+		im.add(a.im, b.im);
+		return this;
+	}
+
+	public DoubleDoubleCplx sub(DoubleDoubleCplx a, DoubleDoubleCplx b) {
+		re.sub(a.re, b.re);
+		im.sub(a.im, b.im);
+		return this;
+	}
+
+	public DoubleDoubleCplx mul(DoubleDoubleCplx a, DoubleDoubleCplx b) {
+		return mul(a.re.hi(), a.re.lo(), a.im.hi(), a.im.lo(), b.re.hi(), b.re.lo(), b.im.hi(), b.im.lo());
+	}
+
+	private DoubleDoubleCplx mul(double reHi0, double reLo0, double imHi0, double imLo0,
+			double reHi1, double reLo1, double imHi1, double imLo1) {
+		// re0 * re1 - im0 * im1
+		t.mul(reHi0, reLo0, reHi1, reLo1);
+
+		double h = t.hi(), l = t.lo();
+
+		t.mul(imHi0, imLo0, imHi1, imLo1);
+		t.sub(h, l, t.hi(), t.lo());
+
+		double rh = t.hi(), rl = t.lo();
+
+		// re0 * im1 + im0 * re1
+		t.mul(reHi0, reLo0, imHi1, imLo1);
+
+		h = t.hi(); l = t.lo();
+
+		t.mul(imHi0, imLo0, reHi1, reLo1);
+
+		im.add(h, l, t.hi(), t.lo());
+		re.set(rh, rl);
+
+		return this;
+	}
+
+	public DoubleDoubleCplx div(DoubleDoubleCplx a, DoubleDoubleCplx b) {
+		return div(a.re.hi(), a.re.lo(), a.im.hi(), a.im.lo(), b.re.hi(), b.re.lo(), b.im.hi(), b.im.lo());
+	}
+
+	private DoubleDoubleCplx div(double reHi0, double reLo0, double imHi0, double imLo0,
+			double reHi1, double reLo1, double imHi1, double imLo1) {
+		// abs = re1^2 + im1^2
+		t.sqr(reHi1, reLo1);
+
+		double h = t.hi(), l = t.lo();
+
+		t.sqr(imHi1, imLo1);
+		t.add(h, l, t.hi(), t.lo());
+
+		double absHi = t.hi(), absLo = t.lo();
+
+		// (re0 * re1 + im0 * im1) / abs
+		t.mul(reHi0, reLo0, reHi1, reLo1);
+
+		h = t.hi(); l = t.lo();
+
+		t.mul(imHi0, imLo0, imHi1, imLo1);
+		t.add(h, l, t.hi(), t.lo());
+		t.div(t.hi(), t.lo(), absHi, absLo);
+
+		double rh = t.hi(), rl = t.lo();
+
+		// (-re0 * im1 + im0 * re1) / abs
+		t.mul(imHi0, imLo0, reHi1, reLo1);
+
+		h = t.hi(); l = t.lo();
+
+		t.mul(reHi0, reLo0, imHi1, imLo1);
+		t.sub(h, l, t.hi(), t.lo());
+
+		im.div(t.hi(), t.lo(), absHi, absLo);
+		re.set(rh, rl);
+
+		return this;
+	}
+
+	public DoubleDoubleCplx powInt(DoubleDoubleCplx zn, int exp) {
+		boolean inv = false;
+
+		if(exp < 0) {
+			inv = true;
+			exp = -exp;
+		}
+
+		double zrHi = zn.re.hi(), zrLo = zn.re.lo();
+		double ziHi = zn.im.hi(), ziLo = zn.im.lo();
+
+		this.set(1., 0.);
+
+		while(exp > 0) { // Power
+			if((exp & 1) != 0) {
+				this.mul(re.hi(), re.lo(), im.hi(), im.lo(), zrHi, zrLo, ziHi, ziLo);
+			}
+
+			exp >>= 1;
+
+			// squaring the base
+			t.sqr(zrHi, zrLo);
+
+			double h = t.hi(), l = t.lo();
+
+			t.sqr(ziHi, ziLo);
+			t.sub(h, l, t.hi(), t.lo());
+
+			h = t.hi(); l = t.lo();
+
+			t.mul(zrHi, zrLo, ziHi, ziLo);
+
+			zrHi = h; zrLo = l;
+			ziHi = 2. * t.hi(); ziLo = 2. * t.lo();
+		}
+
+		if(inv) this.rec(this);
+
+		return this;
+	}
+
+	public DoubleDoubleCplx pow(DoubleDoubleCplx a, DoubleDoubleCplx b) {
+		double reHi1 = b.re.hi(), reLo1 = b.re.lo();
+		double imHi1 = b.im.hi(), imLo1 = b.im.lo();
+
+		if(a.re.hi() != 0 || a.im.hi() != 0) {
+			// exp(log(a) * b)
+			this.log(a);
+			this.mul(re.hi(), re.lo(), im.hi(), im.lo(), reHi1, reLo1, imHi1, imLo1);
+			return this.exp(this);
+		} else {
+			if(reHi1 > 0) {
+				return this.set(0, 0);
+			} else if(reHi1 == 0.) {
+				return this.set(1., 0.);
+			} else {
+				return this.set(Double.POSITIVE_INFINITY, 0);
+			}
+		}
+	}
+
+	// Unary operations
+
+	public DoubleDoubleCplx neg(DoubleDoubleCplx a) {
+		re.neg(a.re.hi(), a.re.lo());
+		im.neg(a.im.hi(), a.im.lo());
+		return this;
+	}
+
+	public DoubleDoubleCplx conj(DoubleDoubleCplx a) {
+		re.set(a.re);
+		im.neg(a.im.hi(), a.im.lo());
+		return this;
+	}
+
+	public DoubleDoubleCplx sqr(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		t.sqr(reHi, reLo);
+
+		double h = t.hi(), l = t.lo();
+
+		t.sqr(imHi, imLo);
+		re.sub(h, l, t.hi(), t.lo());
+
+		t.mul(reHi, reLo, imHi, imLo);
+		im.set(2. * t.hi(), 2. * t.lo());
+
+		return this;
+	}
+
+	public DoubleDoubleCplx rec(DoubleDoubleCplx a) {
+		return div(1, 0, 0, 0, a.re.hi(), a.re.lo(), a.im.hi(), a.im.lo());
+	}
+
+	public DoubleDoubleCplx srec(DoubleDoubleCplx a) {
+		// z + 1/z
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		rec(a);
+
+		re.add(re.hi(), re.lo(), reHi, reLo);
+		im.add(im.hi(), im.lo(), imHi, imLo);
+
+		return this;
+	}
+
+	public DoubleDoubleCplx drec(DoubleDoubleCplx a) {
+		// z - 1/z
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		rec(a);
+
+		re.sub(reHi, reLo, re.hi(), re.lo());
+		im.sub(imHi, imLo, im.hi(), im.lo());
+
+		return this;
+	}
+
+	/**
+	 * Sets dest to the absolute value of this.
+	 */
+	public DoubleDouble abs(DoubleDouble dest) {
+		t.sqr(re);
+
+		double h = t.hi(), l = t.lo();
+
+		t.sqr(im);
+		t.add(h, l, t.hi(), t.lo());
+
+		return dest.sqrt(t);
+	}
+
+	/**
+	 * Sets dest to the argument of this in the range 0 to 2 pi.
+	 */
+	public DoubleDouble arg(DoubleDouble dest) {
+		return dest.arg(im.hi(), im.lo(), re.hi(), re.lo());
+	}
+
+	public DoubleDoubleCplx sqrt(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		// r = |a|
+		t.sqr(reHi, reLo);
+
+		double h = t.hi(), l = t.lo();
+
+		t.sqr(imHi, imLo);
+		t.add(h, l, t.hi(), t.lo());
+		t.sqrt(t);
+
+		double rHi = t.hi(), rLo = t.lo();
+
+		// sqrt((r + re) / 2) and sqrt((r - re) / 2)
+		t.add(rHi, rLo, reHi, reLo);
+		re.sqrt(0.5 * t.hi(), 0.5 * t.lo());
+
+		t.sub(rHi, rLo, reHi, reLo);
+		im.sqrt(0.5 * t.hi(), 0.5 * t.lo());
+
+		if(imHi < 0) im.neg(im.hi(), im.lo());
+
+		return this;
+	}
+
+	// Exp-stuff
+
+	public DoubleDoubleCplx exp(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		t.exp(reHi, reLo);
+
+		double eaHi = t.hi(), eaLo = t.lo();
+
+		t.cos(imHi, imLo);
+		re.mul(eaHi, eaLo, t.hi(), t.lo());
+
+		t.sin(imHi, imLo);
+		im.mul(eaHi, eaLo, t.hi(), t.lo());
+
+		return this;
+	}
+
+	public DoubleDoubleCplx log(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		// log |a| = log(|a|^2) / 2
+		t.sqr(reHi, reLo);
+
+		double h = t.hi(), l = t.lo();
+
+		t.sqr(imHi, imLo);
+		t.add(h, l, t.hi(), t.lo());
+		re.log(t);
+		re.set(0.5 * re.hi(), 0.5 * re.lo());
+
+		im.atan2(imHi, imLo, reHi, reLo);
+
+		return this;
+	}
+
+	// Trigonometric functions (see Cplx)
+
+	public DoubleDoubleCplx sin(DoubleDoubleCplx a) {
+		this.set(-a.im.hi(), -a.im.lo(), a.re.hi(), a.re.lo());
+		this.exp(this);
+		this.drec(this);
+
+		return this.set(0.5 * im.hi(), 0.5 * im.lo(), -0.5 * re.hi(), -0.5 * re.lo());
+	}
+
+	public DoubleDoubleCplx cos(DoubleDoubleCplx a) {
+		this.set(-a.im.hi(), -a.im.lo(), a.re.hi(), a.re.lo());
+		this.exp(this);
+		this.srec(this);
+
+		return this.set(0.5 * re.hi(), 0.5 * re.lo(), 0.5 * im.hi(), 0.5 * im.lo());
+	}
+
+	public DoubleDoubleCplx tan(DoubleDoubleCplx a) {
+		// e ^ 2zi
+		this.set(-2. * a.im.hi(), -2. * a.im.lo(), 2. * a.re.hi(), 2. * a.re.lo());
+		this.exp(this);
+
+		double reHi = re.hi(), reLo = re.lo();
+		double imHi = im.hi(), imLo = im.lo();
+
+		// (im, 1 - re) / (re + 1, im)
+		t.sub(1, 0, reHi, reLo);
+
+		double nh = t.hi(), nl = t.lo();
+
+		t.add(reHi, reLo, 1, 0);
+
+		return this.div(imHi, imLo, nh, nl, t.hi(), t.lo(), imHi, imLo);
+	}
+
+	public DoubleDoubleCplx atan(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		// (1 + im, -re) / (1 - im, re)
+		t.add(1, 0, imHi, imLo);
+
+		double nh = t.hi(), nl = t.lo();
+
+		t.sub(1, 0, imHi, imLo);
+
+		this.div(nh, nl, -reHi, -reLo, t.hi(), t.lo(), reHi, reLo);
+		this.log(this);
+
+		// / 2i
+		return this.set(-0.5 * im.hi(), -0.5 * im.lo(), 0.5 * re.hi(), 0.5 * re.lo());
+	}
+
+	public DoubleDoubleCplx sinh(DoubleDoubleCplx a) {
+		this.exp(a);
+		this.drec(this);
+
+		return this.set(0.5 * re.hi(), 0.5 * re.lo(), 0.5 * im.hi(), 0.5 * im.lo());
+	}
+
+	public DoubleDoubleCplx cosh(DoubleDoubleCplx a) {
+		this.exp(a);
+		this.srec(this);
+
+		return this.set(0.5 * re.hi(), 0.5 * re.lo(), 0.5 * im.hi(), 0.5 * im.lo());
+	}
+
+	public DoubleDoubleCplx tanh(DoubleDoubleCplx a) {
+		// e ^ 2z
+		this.set(2. * a.re.hi(), 2. * a.re.lo(), 2. * a.im.hi(), 2. * a.im.lo());
+		this.exp(this);
+
+		double reHi = re.hi(), reLo = re.lo();
+		double imHi = im.hi(), imLo = im.lo();
+
+		// (re - 1, im) / (re + 1, im)
+		t.sub(reHi, reLo, 1, 0);
+
+		double nh = t.hi(), nl = t.lo();
+
+		t.add(reHi, reLo, 1, 0);
+
+		return this.div(nh, nl, imHi, imLo, t.hi(), t.lo(), imHi, imLo);
+	}
+
+	public DoubleDoubleCplx atanh(DoubleDoubleCplx a) {
+		double reHi = a.re.hi(), reLo = a.re.lo();
+		double imHi = a.im.hi(), imLo = a.im.lo();
+
+		// (1 + re, im) / (1 - re, -im)
+		t.add(1, 0, reHi, reLo);
+
+		double nh = t.hi(), nl = t.lo();
+
+		t.sub(1, 0, reHi, reLo);
+
+		this.div(nh, nl, imHi, imLo, t.hi(), t.lo(), -imHi, -imLo);
+		this.log(this);
+
+		return this.set(0.5 * re.hi(), 0.5 * re.lo(), 0.5 * im.hi(), 0.5 * im.lo());
+	}
+
+	public String toString() {
+		return "(" + re + ", " + im + ")";
+	}
+}
@@ -16,10 +16,6 @@
  */
 package com.fractview.math.colors;
 
-import android.graphics.Color;
-
-
-
 public class Colors {
 
 	public static int parseColorString(String s) {
@@ -35,7 +31,48 @@ public class Colors {
 	}
 	
 	public static float brightness(int color) {
-		return 0.299f * Color.red(color) + 0.587f * Color.green(color) + 0.144f * Color.blue(color);
+		return 0.299f * ((color >> 16) & 0xff) + 0.587f * ((color >> 8) & 0xff) + 0.144f * (color & 0xff);
+	}
+	
+	/** Converts a color in hsv format into an opaque int-color. Same rounding as in
+	 * android.graphics.Color.HSVToColor so that palettes look the same everywhere.
+	 * @param hsv hue in [0, 360), saturation and value in [0, 1].
+	 * @return
+	 */
+	public static int HSVToColor(float[] hsv) {
+		float s = crop(hsv[1], 0f, 1f);
+		float v = crop(hsv[2], 0f, 1f);
+		
+		int vi = round(v * 255f);
+		
+		if(Math.abs(s) <= 1f / 4096f) {
+			return 0xff000000 | vi << 16 | vi << 8 | vi;
+		}
+		
+		float hx = (hsv[0] < 0 || hsv[0] >= 360f) ? 0 : hsv[0] / 60f;
+		float w = (float) Math.floor(hx);
+		float f = hx - w;
+		
+		int p = round((1f - s) * v * 255f);
+		int q = round((1f - s * f) * v * 255f);
+		int t = round((1f - s * (1f - f)) * v * 255f);
+		
+		int r, g, b;
+		
+		switch((int) w) {
+		case 0: r = vi; g = t; b = p; break;
+		case 1: r = q; g = vi; b = p; break;
+		case 2: r = p; g = vi; b = t; break;
+		case 3: r = p; g = q; b = vi; break;
+		case 4: r = t; g = p; b = vi; break;
+		default: r = vi; g = p; b = q; break;
+		}
+		
+		return 0xff000000 | r << 16 | g << 8 | b;
+	}
+	
+	private static int round(float f) {
+		return (int) Math.floor(f + 0.5f);
 	}
 
 	// TODO: Well, look at it...
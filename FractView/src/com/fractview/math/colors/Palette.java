@@ -18,8 +18,6 @@ package com.fractview.math.colors;
 
 import com.fractview.math.Spline;
 
-import android.graphics.Color;
-
 // Linear gradient lab palette
 public class Palette {
 	
@@ -28,15 +26,45 @@ public class Palette {
 	
 	private Spline.Cubic[] splines;
 	
+	/**
+	 * Number of table entries per palette length in the default table.
+	 */
+	public static final int DEFAULT_RESOLUTION = 1024;
+	
+	// The table is not serialized. It is created when it is used the first time,
+	// hence also palettes that were created by GSon have one. Colors are only
+	// set before the array is published in the volatile field.
+	private transient volatile int[] table;
+	
+	// 0 means DEFAULT_RESOLUTION, which also is the value after deserialization.
+	private transient int resolution;
+	private transient boolean nearest;
+	
 	@SuppressWarnings("unused")
 	private Palette() {} // For GSon
 	
 	/**
 	 * @param colors Colors in hsv format
 	 * @param cyclic
-	 * @param length
 	 */
 	public Palette(float[][] colors, boolean cyclic) {
+		this(colors, cyclic, DEFAULT_RESOLUTION, false);
+	}
+	
+	/**
+	 * @param colors Colors in hsv format
+	 * @param cyclic
+	 * @param resolution Number of precalculated colors per palette length
+	 * @param nearest If true, color returns the nearest precalculated color, 
+	 * otherwise it interpolates linearly between the two neighbours.
+	 */
+	public Palette(float[][] colors, boolean cyclic, int resolution, boolean nearest) {
+		if(resolution < 1) {
+			throw new IllegalArgumentException("resolution must be positive");
+		}
+		
+		this.resolution = resolution;
+		this.nearest = nearest;
 
 		this.colors = new float[colors.length][3];
 		
@@ -49,7 +77,7 @@ public class Palette {
 		
 		for(int i = 0; i < colors.length; i++) {
 			this.colors[i] = new float[]{ colors[i][0], colors[i][1], colors[i][2] };
-			Labs[i] = Colors.IntToLab(Color.HSVToColor(colors[i]));
+			Labs[i] = Colors.IntToLab(Colors.HSVToColor(colors[i]));
 		}
 		
 		for(int c = 0; c < 3; c++) {
@@ -85,12 +113,76 @@ public class Palette {
 		return splines[2].y(f);
 	}
 	
+	/**
+	 * @param x Position in the palette, 0 is the first color and 1 the last one 
+	 * (or the first one again in cyclic palettes).
+	 * @return The color at x, taken from a precalculated table. 
+	 */
 	public int color(float x) {
+		int[] table = table();
+		
+		int n = table.length - 1;
+		
+		if(cyclic) x -= (float) Math.floor(x);
+		
+		if(!(x > 0)) { // also NaN
+			return table[0];
+		} else if(x >= 1) {
+			return table[n];
+		}
+		
+		x *= n;
+		
+		int index = (int) x;
+		
+		if(nearest) {
+			return table[Math.round(x)];
+		} else {
+			return mix(table[index], table[index + 1], x - index);
+		}
+	}
+	
+	/**
+	 * @return The exact color at x. This is what the table is created from.
+	 */
+	public int splineColor(float x) {
 		return Colors.LabToRGB(
 				splines[0].y(x), 
 				splines[1].y(x), 
 				splines[2].y(x), 1);
 	}
+	
+	private int[] table() {
+		int[] table = this.table;
+		
+		if(table == null) {
+			// Several threads might do this at the same time but they all create the same table.
+			int n = resolution > 0 ? resolution : DEFAULT_RESOLUTION;
+			
+			table = new int[n + 1];
+			
+			for(int i = 0; i <= n; i++) {
+				table[i] = splineColor((float) i / n);
+			}
+			
+			this.table = table;
+		}
+		
+		return table;
+	}
+	
+	/**
+	 * Linear interpolation of all four channels in fixed point arithmetics.
+	 */
+	private static int mix(int color0, int color1, float d) {
+		int t = (int) (d * 256);
+		int s = 256 - t;
+		
+		int rb = (((color0 & 0x00ff00ff) * s + (color1 & 0x00ff00ff) * t) >>> 8) & 0x00ff00ff;
+		int ag = (((color0 >>> 8) & 0x00ff00ff) * s + ((color1 >>> 8) & 0x00ff00ff) * t) & 0xff00ff00;
+		
+		return ag | rb;
+	}
 
 	public boolean cyclic() {
 		return cyclic;
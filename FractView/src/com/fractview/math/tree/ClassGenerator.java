@@ -0,0 +1,601 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.math.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fractview.math.Cplx;
+import com.fractview.tools.Log;
+
+/**
+ * Translates the register code of an Executable into a JVM class so that the JIT can 
+ * inline and register-allocate user formulas like hand-written code. The generated class 
+ * extends Executable and overrides execute by straight-line code in which every register 
+ * is a pair of local double variables. Functions that are not inlined by the interpreter 
+ * either are called on the scratch Cplx of Executable.
+ * 
+ * This only works on JVMs that allow to define classes at runtime (desktop and server),
+ * Dalvik does not. If the first class cannot be defined, we do not try again and 
+ * create interpreted Executables. If a later one fails, only its formula is interpreted.
+ */
+public class ClassGenerator {
+	
+	private static final String EXECUTABLE = "com/fractview/math/tree/Executable";
+	private static final String CPLX = "com/fractview/math/Cplx";
+	private static final String CPLX_ARRAY = "com/fractview/math/CplxArray";
+	private static final String GENERATED = "com/fractview/math/tree/GeneratedExecutable";
+	
+	private static final String INIT_DESC = "([I[L" + CPLX + ";I)V";
+	private static final String EXECUTE_DESC = "(L" + CPLX + ";L" + CPLX_ARRAY + ";I)V";
+	
+	private static final int CACHE_SIZE = 32;
+	
+	private static final String TAG = "ClassGenerator";
+	
+	private static volatile boolean enabled = true;
+	
+	// True after a generated class was instantiated. Then the JVM supports them and
+	// later failures are caused by a single formula.
+	private static volatile boolean defined = false;
+	
+	// Generated classes by code so that all workers share the same class.
+	private static final Map<String, Constructor<?>> cache = new LinkedHashMap<String, Constructor<?>>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Constructor<?>> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	/**
+	 * Disables or enables the generation of classes. 
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		ClassGenerator.enabled = enabled;
+	}
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Creates an executable for the code. If possible, this is an instance of a generated
+	 * class, otherwise it is the interpreter.
+	 * @param code
+	 * @param constants
+	 * @param parameterCount
+	 * @return
+	 */
+	public static Executable create(int[] code, Cplx[] constants, int parameterCount) {
+		if(enabled) {
+			try {
+				Executable executable = (Executable) constructor(code, constants.length, parameterCount).newInstance(code, constants, parameterCount);
+				defined = true;
+				return executable;
+			} catch(UnsupportedOperationException e) {
+				// Dalvik does not define classes from JVM bytecode. Use the interpreter from now on.
+				disable(e);
+			} catch(LinkageError e) {
+				if(!defined) {
+					disable(e);
+				} else {
+					Log.e(TAG, "Generated class is invalid, interpreting " + Arrays.toString(code) + ": " + e);
+				}
+			} catch(Exception e) {
+				Log.e(TAG, "Could not generate class, interpreting " + Arrays.toString(code) + ": " + e);
+			}
+		}
+		
+		return new Executable(code, constants, parameterCount);
+	}
+	
+	private static void disable(Throwable th) {
+		Log.d(TAG, "Classes cannot be defined, using the interpreter: " + th);
+		enabled = false;
+	}
+	
+	private static Constructor<?> constructor(int[] code, int constantCount, int parameterCount) throws Exception {
+		// Parameter and constant count are part of the key because they determine the registers.
+		String key = parameterCount + "/" + constantCount + ":" + Arrays.toString(code);
+
+		synchronized(cache) {
+			Constructor<?> constructor = cache.get(key);
+			
+			if(constructor == null) {
+				byte[] bytes = new ClassGenerator(code, constantCount, parameterCount).toByteArray();
+				
+				Class<?> c = new Loader(ClassGenerator.class.getClassLoader()).define(GENERATED.replace('/', '.'), bytes);
+				constructor = c.getConstructor(int[].class, Cplx[].class, int.class);
+				
+				cache.put(key, constructor);
+			}
+			
+			return constructor;
+		}
+	}
+	
+	/**
+	 * Every generated class gets its own class loader so that it can be unloaded again.
+	 */
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+	
+	// Opcodes of the JVM that we use.
+	private static final int DCONST_0 = 0x0e;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int ILOAD = 0x15;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD = 0x19;
+	private static final int DALOAD = 0x31;
+	private static final int DSTORE = 0x39;
+	private static final int ASTORE = 0x3a;
+	private static final int POP = 0x57;
+	private static final int IADD = 0x60;
+	private static final int DADD = 0x63;
+	private static final int ISUB = 0x64;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DDIV = 0x6f;
+	private static final int DNEG = 0x77;
+	private static final int I2D = 0x87;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int WIDE = 0xc4;
+	
+	// Local variables of execute
+	private static final int THIS = 0;
+	private static final int C = 1;
+	private static final int ZS = 2;
+	private static final int N = 3;
+	private static final int REGS = 4;
+	private static final int TMP = 5;
+	private static final int SCRATCH = 6; // a double
+	private static final int FIRST_REGISTER = 8;
+	
+	private int[] code;
+	private int constantCount;
+	private int parameterCount;
+	private int registerCount;
+	
+	// Constant pool
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	private Map<String, Integer> poolIndices = new HashMap<String, Integer>();
+	private int poolCount = 1;
+	
+	// Code of the current method
+	private ByteArrayOutputStream methodCode;
+	
+	private ClassGenerator(int[] code, int constantCount, int parameterCount) {
+		this.code = code;
+		this.constantCount = constantCount;
+		this.parameterCount = parameterCount;
+		
+		// Same as in Executable
+		this.registerCount = parameterCount + constantCount;
+		
+		for(int pc = 0; pc < code.length; pc += Executable.operandCount(code[pc]) + 1) {
+			for(int i = 1; i <= Executable.registerOperandCount(code[pc]); i++) {
+				registerCount = Math.max(registerCount, code[pc + i] / 2 + 1);
+			}
+		}
+	}
+	
+	private byte[] toByteArray() throws IOException {
+		int thisClass = classRef(GENERATED);
+		int superClass = classRef(EXECUTABLE);
+		
+		byte[] init = initMethod();
+		byte[] execute = executeMethod();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(0xcafebabe);
+		out.writeShort(0); // minor
+		out.writeShort(49); // major, Java 5 does not need stack maps.
+		
+		out.writeShort(poolCount);
+		out.write(poolBytes.toByteArray());
+		
+		out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		
+		out.writeShort(2); // methods
+		out.write(init);
+		out.write(execute);
+		
+		out.writeShort(0); // attributes
+		
+		return bytes.toByteArray();
+	}
+	
+	private byte[] initMethod() throws IOException {
+		methodCode = new ByteArrayOutputStream();
+		
+		local(ALOAD, 0);
+		local(ALOAD, 1);
+		local(ALOAD, 2);
+		local(ILOAD, 3);
+		op(INVOKESPECIAL); u2(methodRef(EXECUTABLE, "<init>", INIT_DESC));
+		op(RETURN);
+		
+		return method("<init>", INIT_DESC, 4, 4);
+	}
+	
+	private byte[] executeMethod() throws IOException {
+		methodCode = new ByteArrayOutputStream();
+		
+		local(ALOAD, THIS);
+		op(GETFIELD); u2(fieldRef(EXECUTABLE, "regs", "[D"));
+		local(ASTORE, REGS);
+		
+		local(ALOAD, THIS);
+		op(GETFIELD); u2(fieldRef(EXECUTABLE, "tmp", "L" + CPLX + ";"));
+		local(ASTORE, TMP);
+		
+		// Parameters and constants are kept in the register file of Executable
+		for(int r = 0; r < parameterCount + constantCount; r++) {
+			local(ALOAD, REGS); intConst(2 * r); op(DALOAD); local(DSTORE, re(2 * r));
+			local(ALOAD, REGS); intConst(2 * r + 1); op(DALOAD); local(DSTORE, im(2 * r));
+		}
+		
+		for(int pc = 0; pc < code.length; pc += Executable.operandCount(code[pc]) + 1) {
+			instruction(pc);
+		}
+		
+		return method("execute", EXECUTE_DESC, 16, FIRST_REGISTER + 4 * registerCount);
+	}
+	
+	private void instruction(int pc) {
+		int op = code[pc];
+		int d = op == Executable.RET ? 0 : code[pc + 1];
+		int a = Executable.operandCount(op) > 1 ? code[pc + 2] : 0;
+		int b = Executable.operandCount(op) > 2 ? code[pc + 3] : 0;
+		
+		switch(op) {
+		case Executable.LD_C:
+			local(ALOAD, C); virtual(CPLX, "re", "()D"); local(DSTORE, re(d));
+			local(ALOAD, C); virtual(CPLX, "im", "()D"); local(DSTORE, im(d));
+			break;
+		case Executable.LD_X:
+			local(ALOAD, C); virtual(CPLX, "re", "()D"); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.LD_Y:
+			local(ALOAD, C); virtual(CPLX, "im", "()D"); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.LD_N:
+			local(ILOAD, N); op(I2D); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.LD_Z:
+			local(ALOAD, ZS); zIndex(a);
+			virtual(CPLX_ARRAY, "re", "(I)D"); local(DSTORE, re(d));
+			local(ALOAD, ZS); zIndex(a);
+			virtual(CPLX_ARRAY, "im", "(I)D"); local(DSTORE, im(d));
+			break;
+		case Executable.NEG:
+			local(DLOAD, re(a)); op(DNEG);
+			local(DLOAD, im(a)); op(DNEG);
+			store(d);
+			break;
+		case Executable.REC:
+			absSqr(a);
+			local(DLOAD, re(a)); local(DLOAD, SCRATCH); op(DDIV);
+			local(DLOAD, im(a)); op(DNEG); local(DLOAD, SCRATCH); op(DDIV);
+			store(d);
+			break;
+		case Executable.SREC:
+		case Executable.DREC:
+			absSqr(a);
+			local(DLOAD, re(a)); local(DLOAD, re(a)); local(DLOAD, SCRATCH); op(DDIV); op(op == Executable.SREC ? DADD : DSUB);
+			local(DLOAD, im(a)); local(DLOAD, im(a)); local(DLOAD, SCRATCH); op(DDIV); op(op == Executable.SREC ? DSUB : DADD);
+			store(d);
+			break;
+		case Executable.SQR:
+			local(DLOAD, re(a)); local(DLOAD, re(a)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, im(a)); op(DMUL); op(DSUB);
+			local(DLOAD, re(a)); local(DLOAD, re(a)); op(DADD); local(DLOAD, im(a)); op(DMUL);
+			store(d);
+			break;
+		case Executable.SQRT: library(d, a, "sqrt"); break;
+		case Executable.EXP: library(d, a, "exp"); break;
+		case Executable.LOG: library(d, a, "log"); break;
+		case Executable.SIN: library(d, a, "sin"); break;
+		case Executable.COS: library(d, a, "cos"); break;
+		case Executable.TAN: library(d, a, "tan"); break;
+		case Executable.ATAN: library(d, a, "atan"); break;
+		case Executable.SINH: library(d, a, "sinh"); break;
+		case Executable.COSH: library(d, a, "cosh"); break;
+		case Executable.TANH: library(d, a, "tanh"); break;
+		case Executable.ATANH: library(d, a, "atanh"); break;
+		case Executable.RE:
+			local(DLOAD, re(a)); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.IM:
+			local(DLOAD, im(a)); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.CONJ:
+			local(DLOAD, re(a));
+			local(DLOAD, im(a)); op(DNEG);
+			store(d);
+			break;
+		case Executable.ABS:
+			local(DLOAD, im(a)); local(DLOAD, re(a)); 
+			op(INVOKESTATIC); u2(methodRef("java/lang/Math", "hypot", "(DD)D"));
+			local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.ARG:
+			setTmp(a);
+			virtual(CPLX, "arg", "()D"); local(DSTORE, re(d));
+			zero(im(d));
+			break;
+		case Executable.CABS:
+		case Executable.FLOOR: {
+			String name = op == Executable.CABS ? "abs" : "floor";
+			local(DLOAD, re(a)); op(INVOKESTATIC); u2(methodRef("java/lang/Math", name, "(D)D"));
+			local(DLOAD, im(a)); op(INVOKESTATIC); u2(methodRef("java/lang/Math", name, "(D)D"));
+			store(d);
+			break;
+		}
+		case Executable.POLAR:
+			setTmp(a); op(POP);
+			local(ALOAD, TMP); virtual(CPLX, "abs", "()D");
+			local(ALOAD, TMP); virtual(CPLX, "arg", "()D");
+			store(d);
+			break;
+		case Executable.POW_INT:
+			setTmp(a);
+			local(ALOAD, TMP); intConst(b);
+			virtual(CPLX, "powInt", "(L" + CPLX + ";I)L" + CPLX + ";"); op(POP);
+			fromTmp(d);
+			break;
+		case Executable.ADD:
+		case Executable.SUB: {
+			int dop = op == Executable.ADD ? DADD : DSUB;
+			local(DLOAD, re(a)); local(DLOAD, re(b)); op(dop);
+			local(DLOAD, im(a)); local(DLOAD, im(b)); op(dop);
+			store(d);
+			break;
+		}
+		case Executable.MUL:
+			local(DLOAD, re(a)); local(DLOAD, re(b)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, im(b)); op(DMUL); op(DSUB);
+			local(DLOAD, re(a)); local(DLOAD, im(b)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, re(b)); op(DMUL); op(DADD);
+			store(d);
+			break;
+		case Executable.DIV:
+			absSqr(b);
+			local(DLOAD, re(a)); local(DLOAD, re(b)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, im(b)); op(DMUL); op(DADD);
+			local(DLOAD, SCRATCH); op(DDIV);
+			local(DLOAD, re(a)); op(DNEG); local(DLOAD, im(b)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, re(b)); op(DMUL); op(DADD);
+			local(DLOAD, SCRATCH); op(DDIV);
+			store(d);
+			break;
+		case Executable.POW:
+			local(ALOAD, TMP);
+			local(DLOAD, re(a)); local(DLOAD, im(a)); local(DLOAD, re(b)); local(DLOAD, im(b));
+			virtual(CPLX, "pow", "(DDDD)L" + CPLX + ";"); op(POP);
+			fromTmp(d);
+			break;
+		case Executable.RET:
+			local(ALOAD, ZS); local(ILOAD, N); intConst(1); op(IADD);
+			local(DLOAD, re(code[pc + 1])); local(DLOAD, im(code[pc + 1]));
+			virtual(CPLX_ARRAY, "set", "(IDD)V");
+			op(RETURN);
+			break;
+		default: throw new IllegalArgumentException("No such instruction: " + op);
+		}
+	}
+	
+	// Register operands are offsets into the register file, ie 2 * register.
+	private int re(int offset) {
+		return FIRST_REGISTER + 2 * offset;
+	}
+	
+	private int im(int offset) {
+		return FIRST_REGISTER + 2 * offset + 2;
+	}
+	
+	/** Stack contains re and im, store them in register d */
+	private void store(int d) {
+		local(DSTORE, im(d));
+		local(DSTORE, re(d));
+	}
+	
+	private void zero(int local) {
+		op(DCONST_0); local(DSTORE, local);
+	}
+	
+	private void absSqr(int a) {
+		local(DLOAD, re(a)); local(DLOAD, re(a)); op(DMUL); local(DLOAD, im(a)); local(DLOAD, im(a)); op(DMUL); op(DADD);
+		local(DSTORE, SCRATCH);
+	}
+	
+	/** tmp.set(a), leaves tmp on the stack */
+	private void setTmp(int a) {
+		local(ALOAD, TMP); local(DLOAD, re(a)); local(DLOAD, im(a));
+		virtual(CPLX, "set", "(DD)L" + CPLX + ";");
+	}
+	
+	/** Pushes the index of z(n - a) */
+	private void zIndex(int a) {
+		local(ILOAD, N);
+		
+		if(a != 0) {
+			intConst(a); op(ISUB);
+		}
+	}
+	
+	private void fromTmp(int d) {
+		local(ALOAD, TMP); virtual(CPLX, "re", "()D"); local(DSTORE, re(d));
+		local(ALOAD, TMP); virtual(CPLX, "im", "()D"); local(DSTORE, im(d));
+	}
+	
+	/** d = tmp.name(a) */
+	private void library(int d, int a, String name) {
+		local(ALOAD, TMP); local(DLOAD, re(a)); local(DLOAD, im(a));
+		virtual(CPLX, name, "(DD)L" + CPLX + ";"); op(POP);
+		fromTmp(d);
+	}
+	
+	private void virtual(String owner, String name, String desc) {
+		op(INVOKEVIRTUAL); u2(methodRef(owner, name, desc));
+	}
+	
+	private void op(int op) {
+		methodCode.write(op);
+	}
+	
+	private void u2(int value) {
+		methodCode.write(value >> 8);
+		methodCode.write(value);
+	}
+	
+	private void local(int op, int index) {
+		if(index < 256) {
+			op(op);
+			methodCode.write(index);
+		} else {
+			op(WIDE);
+			op(op);
+			u2(index);
+		}
+	}
+	
+	private void intConst(int value) {
+		if(value == (byte) value) {
+			op(BIPUSH); methodCode.write(value);
+		} else if(value == (short) value) {
+			op(SIPUSH); u2(value);
+		} else {
+			throw new IllegalArgumentException("Constant out of range: " + value);
+		}
+	}
+	
+	private byte[] method(String name, String desc, int maxStack, int maxLocals) throws IOException {
+		byte[] body = methodCode.toByteArray();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeShort(0x0001); // public
+		out.writeShort(utf8(name));
+		out.writeShort(utf8(desc));
+		
+		out.writeShort(1); // attributes
+		out.writeShort(utf8("Code"));
+		out.writeInt(12 + body.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+		
+		return bytes.toByteArray();
+	}
+	
+	// Constant pool entries
+	
+	private int utf8(String s) {
+		String key = "U" + s;
+		Integer index = poolIndices.get(key);
+		
+		if(index == null) {
+			try {
+				pool.writeByte(1);
+				pool.writeUTF(s);
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+			
+			index = poolCount++;
+			poolIndices.put(key, index);
+		}
+		
+		return index;
+	}
+	
+	private int entry(String key, int tag, int a, int b) {
+		Integer index = poolIndices.get(key);
+		
+		if(index == null) {
+			try {
+				pool.writeByte(tag);
+				pool.writeShort(a);
+				if(b >= 0) pool.writeShort(b);
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+			
+			index = poolCount++;
+			poolIndices.put(key, index);
+		}
+		
+		return index;
+	}
+	
+	private int classRef(String name) {
+		int utf = utf8(name);
+		return entry("C" + name, 7, utf, -1);
+	}
+	
+	private int nameAndType(String name, String desc) {
+		int n = utf8(name);
+		int d = utf8(desc);
+		return entry("N" + name + ":" + desc, 12, n, d);
+	}
+	
+	private int methodRef(String owner, String name, String desc) {
+		int c = classRef(owner);
+		int nt = nameAndType(name, desc);
+		return entry("M" + owner + "." + name + desc, 10, c, nt);
+	}
+	
+	private int fieldRef(String owner, String name, String desc) {
+		int c = classRef(owner);
+		int nt = nameAndType(name, desc);
+		return entry("F" + owner + "." + name + desc, 9, c, nt);
+	}
+}
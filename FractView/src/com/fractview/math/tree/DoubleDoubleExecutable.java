@@ -0,0 +1,183 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.math.tree;
+
+import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
+import com.fractview.math.DoubleDouble;
+import com.fractview.math.DoubleDoubleCplx;
+
+/**
+ * Interpreter for the same register code as Executable but in double-double
+ * precision (see DoubleDouble) for views that are too small for doubles. Each
+ * register is a DoubleDoubleCplx, register operands are offsets into a register file
+ * of doubles as in Executable, hence register i is at offset 2i.
+ *
+ * Orbits are split into two arrays: zs contains the points rounded to double
+ * precision and lows the remainders (the lo-parts of DoubleDouble).
+ *
+ * Like Executable, an instance must not be used by multiple threads at the same time.
+ */
+public class DoubleDoubleExecutable {
+
+	private int[] code;
+	private DoubleDoubleCplx[] regs;
+
+	// Scratch for abs and arg
+	private DoubleDouble tmp = new DoubleDouble();
+
+	/**
+	 * @param code Register code as for Executable.
+	 * @param constants
+	 * @param parameterCount
+	 */
+	public DoubleDoubleExecutable(int[] code, Cplx[] constants, int parameterCount) {
+		this.code = code;
+		this.regs = new DoubleDoubleCplx[Executable.registerCount(code, parameterCount + constants.length)];
+
+		for(int i = 0; i < regs.length; i++) {
+			regs[i] = new DoubleDoubleCplx();
+		}
+
+		for(int i = 0; i < constants.length; i++) {
+			regs[parameterCount + i].set(constants[i].re(), constants[i].im());
+		}
+	}
+
+	public void setParameter(int index, Cplx value) {
+		regs[index].set(value.re(), value.im());
+	}
+
+	/**
+	 * Executes the code and stores the result in zs and lows at index n + 1.
+	 * @param c
+	 * @param zs
+	 * @param lows
+	 * @param n
+	 */
+	public void execute(DoubleDoubleCplx c, CplxArray zs, CplxArray lows, int n) {
+		final int[] code = this.code;
+		final DoubleDoubleCplx[] r = this.regs;
+
+		int pc = 0;
+
+		for(;;) {
+			// Register operands are offsets of doubles, hence they are halved.
+			switch(code[pc]) {
+			case Executable.LD_C: r[code[pc + 1] >> 1].set(c); pc += 2; break;
+			case Executable.LD_X: {
+				DoubleDouble re = c.re();
+				r[code[pc + 1] >> 1].set(re.hi(), re.lo(), 0, 0);
+				pc += 2;
+				break;
+			}
+			case Executable.LD_Y: {
+				DoubleDouble im = c.im();
+				r[code[pc + 1] >> 1].set(im.hi(), im.lo(), 0, 0);
+				pc += 2;
+				break;
+			}
+			case Executable.LD_N: r[code[pc + 1] >> 1].set(n, 0); pc += 2; break;
+			case Executable.LD_Z: {
+				int i = n - code[pc + 2];
+				r[code[pc + 1] >> 1].set(zs.re(i), lows.re(i), zs.im(i), lows.im(i));
+				pc += 3;
+				break;
+			}
+			case Executable.NEG: r[code[pc + 1] >> 1].neg(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.REC: r[code[pc + 1] >> 1].rec(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.SREC: r[code[pc + 1] >> 1].srec(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.DREC: r[code[pc + 1] >> 1].drec(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.SQR: r[code[pc + 1] >> 1].sqr(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.SQRT: r[code[pc + 1] >> 1].sqrt(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.EXP: r[code[pc + 1] >> 1].exp(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.LOG: r[code[pc + 1] >> 1].log(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.SIN: r[code[pc + 1] >> 1].sin(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.COS: r[code[pc + 1] >> 1].cos(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.TAN: r[code[pc + 1] >> 1].tan(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.ATAN: r[code[pc + 1] >> 1].atan(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.SINH: r[code[pc + 1] >> 1].sinh(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.COSH: r[code[pc + 1] >> 1].cosh(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.TANH: r[code[pc + 1] >> 1].tanh(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.ATANH: r[code[pc + 1] >> 1].atanh(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.RE: {
+				DoubleDouble re = r[code[pc + 2] >> 1].re();
+				r[code[pc + 1] >> 1].set(re.hi(), re.lo(), 0, 0);
+				pc += 3;
+				break;
+			}
+			case Executable.IM: {
+				DoubleDouble im = r[code[pc + 2] >> 1].im();
+				r[code[pc + 1] >> 1].set(im.hi(), im.lo(), 0, 0);
+				pc += 3;
+				break;
+			}
+			case Executable.CONJ: r[code[pc + 1] >> 1].conj(r[code[pc + 2] >> 1]); pc += 3; break;
+			case Executable.ABS: {
+				r[code[pc + 2] >> 1].abs(tmp);
+				r[code[pc + 1] >> 1].set(tmp.hi(), tmp.lo(), 0, 0);
+				pc += 3;
+				break;
+			}
+			case Executable.ARG: {
+				r[code[pc + 2] >> 1].arg(tmp);
+				r[code[pc + 1] >> 1].set(tmp.hi(), tmp.lo(), 0, 0);
+				pc += 3;
+				break;
+			}
+			case Executable.CABS: {
+				DoubleDoubleCplx d = r[code[pc + 1] >> 1], a = r[code[pc + 2] >> 1];
+				d.re().abs(a.re().hi(), a.re().lo());
+				d.im().abs(a.im().hi(), a.im().lo());
+				pc += 3;
+				break;
+			}
+			case Executable.POLAR: {
+				DoubleDoubleCplx d = r[code[pc + 1] >> 1], a = r[code[pc + 2] >> 1];
+				a.arg(tmp);
+
+				double argHi = tmp.hi(), argLo = tmp.lo();
+
+				a.abs(tmp);
+				d.set(tmp.hi(), tmp.lo(), argHi, argLo);
+				pc += 3;
+				break;
+			}
+			case Executable.FLOOR: {
+				DoubleDoubleCplx d = r[code[pc + 1] >> 1], a = r[code[pc + 2] >> 1];
+				d.re().floor(a.re().hi(), a.re().lo());
+				d.im().floor(a.im().hi(), a.im().lo());
+				pc += 3;
+				break;
+			}
+			case Executable.POW_INT: r[code[pc + 1] >> 1].powInt(r[code[pc + 2] >> 1], code[pc + 3]); pc += 4; break;
+			case Executable.ADD: r[code[pc + 1] >> 1].add(r[code[pc + 2] >> 1], r[code[pc + 3] >> 1]); pc += 4; break;
+			case Executable.SUB: r[code[pc + 1] >> 1].sub(r[code[pc + 2] >> 1], r[code[pc + 3] >> 1]); pc += 4; break;
+			case Executable.MUL: r[code[pc + 1] >> 1].mul(r[code[pc + 2] >> 1], r[code[pc + 3] >> 1]); pc += 4; break;
+			case Executable.DIV: r[code[pc + 1] >> 1].div(r[code[pc + 2] >> 1], r[code[pc + 3] >> 1]); pc += 4; break;
+			case Executable.POW: r[code[pc + 1] >> 1].pow(r[code[pc + 2] >> 1], r[code[pc + 3] >> 1]); pc += 4; break;
+			case Executable.RET: {
+				DoubleDoubleCplx a = r[code[pc + 1] >> 1];
+				zs.set(n + 1, a.re().hi(), a.im().hi());
+				lows.set(n + 1, a.re().lo(), a.im().lo());
+				return;
+			}
+			default: throw new IllegalArgumentException("No such instruction: " + code[pc]);
+			}
+		}
+	}
+}
@@ -17,317 +17,358 @@
 package com.fractview.math.tree;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.ListIterator;
 
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
 
 /**
- * This class contains an interpreter for instances of CompiledExpr. The reason why this
- * class is not combined with CompiledExpr is that we might share parameters amongst various 
- * Executables. Therefore, in this case we should first collect all parameters and constants
- * in all these CompiledExpr and then create corresponding executables.
+ * This class contains an interpreter for the register code that is generated by
+ * ExprCompiler. The code is a flat array of instructions, each instruction being an
+ * opcode followed by its operands. Operands are offsets into a register file of 
+ * doubles in which the real part of register i is at 2i and the imaginary part at 2i + 1.
+ * 
+ * The first registers contain the parameters, followed by the constants. Since the 
+ * parameters might be shared amongst several Executables (inits and function of an 
+ * ExecutableFunction), parameters are set from outside via setParameter. 
+ * 
+ * The register file is part of this object, hence an Executable must not be used
+ * by multiple threads at the same time.
+ * 
+ * ClassGenerator creates subclasses of this class that override execute by 
+ * straight-line JVM code for one specific program.
  */
 public class Executable {
 	
-	// An instruction is compiled of several masks
+	// Loads: dst
+	public static final int LD_C = 0;
+	public static final int LD_X = 1;
+	public static final int LD_Y = 2;
+	public static final int LD_N = 3;
 	
-	// TODO: Other functions (proposals?)
-	
-	public static final int ATOM_MASK = 0x0000ff00;
-	
-	public static final int NO_ATOM =   0x000000000;
-	
-	public static final int ATOM_C =    0x00000100;
-	public static final int ATOM_Z =    0x00000200;
-	public static final int ATOM_N =    0x00000300;
-	public static final int ATOM_X =    0x00000400;
-	public static final int ATOM_Y =    0x00000500;
-
-	// the following require the n-field unsigned
-	public static final int ATOM_Z_LAST =  0x00000800;
-	public static final int ATOM_CONST =   0x00000900;
-	public static final int ATOM_VAR =     0x00000A00;
-
-	// the following require the n-field signed
-	public static final int ATOM_INT =	   0x00000B00;
+	// dst, k; loads z(n - k).
+	public static final int LD_Z = 4;
 
-	// there's space for 255 in total!
-	// Check whether >> 8 has any speed up
+	// Unary functions: dst, src
+	public static final int NEG = 5;
+	public static final int REC = 6;
+	public static final int SREC = 7;
+	public static final int DREC = 8;
+	public static final int SQR = 9;
+	public static final int SQRT = 10;
+	public static final int EXP = 11;
+	public static final int LOG = 12;
+	public static final int SIN = 13;
+	public static final int COS = 14;
+	public static final int TAN = 15;
+	public static final int ATAN = 16;
+	public static final int SINH = 17;
+	public static final int COSH = 18;
+	public static final int TANH = 19;
+	public static final int ATANH = 20;
+	public static final int RE = 21;
+	public static final int IM = 22;
+	public static final int CONJ = 23;
+	public static final int ABS = 24;
+	public static final int ARG = 25;
+	public static final int CABS = 26;
+	public static final int POLAR = 27;
+	public static final int FLOOR = 28;
 	
-	// Now comes the functions
-	// They occupy the first bits so that the switch-statement is faster.
-	public static final int OP_MASK = 0x0000003f;
+	// dst, src, exponent
+	public static final int POW_INT = 29;
 	
-	// identity-function - do nothing
-	public static final int UN_ID = 0x00000000;
+	// Binary functions: dst, src0, src1
+	public static final int ADD = 30;
+	public static final int SUB = 31;
+	public static final int MUL = 32;
+	public static final int DIV = 33;
+	public static final int POW = 34;
 	
-	// Now the real stuff
-	public static final int UN_NEG = 0x00000001;
-	public static final int UN_REC = 0x00000002;
-	public static final int UN_SREC = 0x00000003;
-	public static final int UN_DREC = 0x00000004;
-	public static final int UN_SQR = 0x00000005;
-	public static final int UN_SQRT = 0x00000006;
-
-	// more real
-	public static final int UN_EXP = 0x00000007;
-	public static final int UN_LOG = 0x00000008;
-
-	// trigonometric
-	public static final int UN_SIN = 0x00000009;
-	public static final int UN_COS = 0x0000000A;
-	public static final int UN_TAN = 0x0000000B;
-	public static final int UN_ATAN = 0x0000000C;
-	public static final int UN_SINH = 0x0000000D;
-	public static final int UN_COSH = 0x0000000E;
-	public static final int UN_TANH = 0x0000000F;
-	public static final int UN_ATANH = 0x00000010;
-
-	public static final int UN_RE = 0x00000011;
-	public static final int UN_IM = 0x00000012;
-	public static final int UN_CONJ = 0x00000013;
-	public static final int UN_ABS = 0x00000014;
-	public static final int UN_ARG = 0x00000015;
-
-	public static final int UN_CABS = 0x00000016;
-	public static final int UN_POLAR = 0x00000017;
-
-	public static final int UN_FLOOR = 0x00000018;
-
-	// Things that require n signed
-	public static final int UN_POW_INT = 0x00000019;
+	// src; stores the register in zs at index n + 1 and ends the execution.
+	public static final int RET = 35;
 	
-	// Now binary functions
-	public static final int BINARY_FLAG = 0x00000080;
-	public static final int SWAP_FLAG = 0x00000040;
+	private static final String[] NAMES = {
+		"ld_c", "ld_x", "ld_y", "ld_n", "ld_z", 
+		"neg", "rec", "srec", "drec", "sqr", "sqrt", "exp", "log", 
+		"sin", "cos", "tan", "atan", "sinh", "cosh", "tanh", "atanh",
+		"re", "im", "conj", "abs", "arg", "cabs", "polar", "floor", "pow_int",
+		"add", "sub", "mul", "div", "pow", "ret"
+	};
 	
-	public static final int BIN_ADD = 0x00000000;
-	public static final int BIN_SUB = 0x00000001;
-	public static final int BIN_MUL = 0x00000002;
-	public static final int BIN_DIV = 0x00000003;
-	public static final int BIN_POW = 0x00000004;
+	/**
+	 * @param opCode
+	 * @return Number of operands of the given instruction
+	 */
+	public static int operandCount(int opCode) {
+		if(opCode <= LD_N) return 1;
+		if(opCode == LD_Z) return 2;
+		if(opCode < POW_INT) return 2;
+		if(opCode <= POW) return 3;
+		return 1; // RET
+	}
 	
-	private class Node {
-		int instruction;
-		Node next;
-		
-		Node(int instruction, Node next) {
-			this.instruction = instruction;
-			this.next = next;
-		}
+	/**
+	 * @param opCode
+	 * @return Number of operands that are registers (they come first)
+	 */
+	public static int registerOperandCount(int opCode) {
+		return opCode == LD_Z || opCode == POW_INT ? operandCount(opCode) - 1 : operandCount(opCode);
 	}
 	
+	private int[] code;
 	private Cplx[] constants;
-
-	private Node head; // using a linked list seems to be faster than using an array...
+	
+	// Generated subclasses read parameters and constants from here.
+	protected double[] regs;
+	
+	// Scratch for functions that we do not inline
+	protected Cplx tmp = new Cplx();
 	
 	/** Creates a new Executable. Arrays here might not be copied. If they are modified (which
 	 * is strongly discouraged because they might actually be shared amongst several
 	 * instances of this class) the result is unexpected. 
-	 * @param instructions
+	 * @param code Register code in which register operands are already offsets into the register file.
 	 * @param constants
+	 * @param parameterCount
 	 */
-	public Executable(List<Integer> instructions, Cplx[] constants) {
-		head = null;
+	public Executable(int[] code, Cplx[] constants, int parameterCount) {
+		this.code = code;
+		this.constants = constants;
 		
-		// Reverse list
-		ListIterator<Integer> li = instructions.listIterator(instructions.size());
+		this.regs = new double[2 * registerCount(code, parameterCount + constants.length)];
 		
-		while(li.hasPrevious()) {
-			head = new Node(li.previous(), head);
+		for(int i = 0; i < constants.length; i++) {
+			regs[2 * (parameterCount + i)] = constants[i].re();
+			regs[2 * (parameterCount + i) + 1] = constants[i].im();
 		}
-		
-		this.constants = constants;
 	}
 	
 	/**
-	 * @param c
-	 * @param zs
-	 * @param n
-	 * @param parameters Values of all parameters. The ith complex number here corresponds to the
-	 * ith parameter in the constructor
+	 * @param code
+	 * @param minCount Number of registers for parameters and constants
+	 * @return Number of registers that are needed to execute code.
 	 */
-	public void execute(Cplx c, Cplx[] zs, int n, Cplx[] parameters, Cplx dest) {
-		Node node = execute(head, c, zs, n, parameters, dest);
+	static int registerCount(int[] code, int minCount) {
+		int registerCount = minCount;
 		
-		if(node != null) {
-			throw new IllegalArgumentException(
-					"Some instructions were ignored..." + this + ", " + Integer.toHexString(node.instruction));
+		for(int pc = 0; pc < code.length; pc += operandCount(code[pc]) + 1) {
+			for(int i = 1; i <= registerOperandCount(code[pc]); i++) {
+				registerCount = Math.max(registerCount, code[pc + i] / 2 + 1);
+			}
 		}
+		
+		return registerCount;
 	}
 	
-	private Node execute(Node pc, Cplx c, Cplx[] zs, int n, Cplx[] parameters, Cplx dest) {
-		/* interpret "functions" with 0 arguments */
-		switch(pc.instruction & ATOM_MASK) {
-		case ATOM_C:
-			dest.set(c);
-			break;
-		case ATOM_Z:
-			dest.set(zs[n]);
-			break;
-		case ATOM_N:
-			dest.set(n, 0);
-			break;
-		case ATOM_X:
-			dest.set(c.re(), 0);
-			break;
-		case ATOM_Y:
-			dest.set(c.im(), 0);
-			break;
-		case ATOM_Z_LAST: {
-			int index = pc.instruction >>> 16;
-			dest.set(zs[n - index]);
-			break;
-		}
-		case ATOM_CONST: {
-			int index = pc.instruction >>> 16;
-			dest.set(constants[index]);
-			break;
-		}
-		case ATOM_VAR: {
-			int index = pc.instruction >>> 16;
-			dest.set(parameters[index]);
-			break;
-		}
-		case ATOM_INT:
-			dest.set(pc.instruction >> 16, 0);
-			break;
-		default: throw new IllegalArgumentException("No such constant...");
-		}
+	/**
+	 * @return Number of registers used by the code
+	 */
+	public int registerCount() {
+		return regs.length / 2;
+	}
+	
+	public void setParameter(int index, Cplx value) {
+		regs[2 * index] = value.re();
+		regs[2 * index + 1] = value.im();
+	}
+	
+	/**
+	 * Executes the code and stores the result in zs at index n + 1.
+	 * @param c
+	 * @param zs
+	 * @param n
+	 */
+	public void execute(Cplx c, CplxArray zs, int n) {
+		final int[] code = this.code;
+		final double[] r = this.regs;
+
+		int pc = 0;
 		
-		while(pc != null && ((pc.instruction & BINARY_FLAG) == 0)) {
-			/* interpret unary function */
-			switch(pc.instruction & OP_MASK) {
-			case UN_ID: break;
-			case UN_NEG:
-				dest.neg(dest);
+		for(;;) {
+			switch(code[pc]) {
+			case LD_C: {
+				int d = code[pc + 1];
+				r[d] = c.re(); r[d + 1] = c.im();
+				pc += 2;
 				break;
-			case UN_REC:
-				dest.rec(dest);
-				break;
-			case UN_SREC:
-				dest.srec(dest);
+			}
+			case LD_X: {
+				int d = code[pc + 1];
+				r[d] = c.re(); r[d + 1] = 0;
+				pc += 2;
 				break;
-			case UN_DREC:
-				dest.drec(dest);
+			}
+			case LD_Y: {
+				int d = code[pc + 1];
+				r[d] = c.im(); r[d + 1] = 0;
+				pc += 2;
 				break;
-			case UN_SQR:
-				dest.sqr(dest);
+			}
+			case LD_N: {
+				int d = code[pc + 1];
+				r[d] = n; r[d + 1] = 0;
+				pc += 2;
 				break;
-			case UN_SQRT: 
-				dest.sqrt(dest);
+			}
+			case LD_Z: {
+				int d = code[pc + 1];
+				int i = n - code[pc + 2];
+				r[d] = zs.re(i); r[d + 1] = zs.im(i);
+				pc += 3;
 				break;
-			case UN_EXP: 
-				dest.exp(dest);
+			}
+			case NEG: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = -r[a]; r[d + 1] = -r[a + 1];
+				pc += 3;
 				break;
-			case UN_LOG: 
-				dest.log(dest);
+			}
+			case REC: {
+				int d = code[pc + 1], a = code[pc + 2];
+				double re = r[a], im = r[a + 1];
+				double abs = re * re + im * im;
+				r[d] = re / abs; r[d + 1] = -im / abs;
+				pc += 3;
 				break;
-			case UN_SIN: 
-				dest.sin(dest);
+			}
+			case SREC: {
+				int d = code[pc + 1], a = code[pc + 2];
+				double re = r[a], im = r[a + 1];
+				double abs = re * re + im * im;
+				r[d] = re + re / abs; r[d + 1] = im - im / abs;
+				pc += 3;
 				break;
-			case UN_COS: 
-				dest.cos(dest);
+			}
+			case DREC: {
+				int d = code[pc + 1], a = code[pc + 2];
+				double re = r[a], im = r[a + 1];
+				double abs = re * re + im * im;
+				r[d] = re - re / abs; r[d + 1] = im + im / abs;
+				pc += 3;
 				break;
-			case UN_TAN: 
-				dest.tan(dest);
+			}
+			case SQR: {
+				int d = code[pc + 1], a = code[pc + 2];
+				double re = r[a], im = r[a + 1];
+				r[d] = re * re - im * im; r[d + 1] = 2. * re * im;
+				pc += 3;
 				break;
-			case UN_ATAN: 
-				dest.atan(dest);
+			}
+			case SQRT: unary(tmp.sqrt(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case EXP: unary(tmp.exp(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case LOG: unary(tmp.log(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case SIN: unary(tmp.sin(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case COS: unary(tmp.cos(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case TAN: unary(tmp.tan(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case ATAN: unary(tmp.atan(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case SINH: unary(tmp.sinh(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case COSH: unary(tmp.cosh(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case TANH: unary(tmp.tanh(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case ATANH: unary(tmp.atanh(r[code[pc + 2]], r[code[pc + 2] + 1]), code[pc + 1]); pc += 3; break;
+			case RE: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = r[a]; r[d + 1] = 0;
+				pc += 3;
 				break;
-			case UN_SINH: 
-				dest.sinh(dest);
+			}
+			case IM: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = r[a + 1]; r[d + 1] = 0;
+				pc += 3;
 				break;
-			case UN_COSH: 
-				dest.cosh(dest);
+			}
+			case CONJ: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = r[a]; r[d + 1] = -r[a + 1];
+				pc += 3;
 				break;
-			case UN_TANH: 
-				dest.tanh(dest);
+			}
+			case ABS: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = Math.hypot(r[a + 1], r[a]); r[d + 1] = 0;
+				pc += 3;
 				break;
-			case UN_ATANH: 
-				dest.atanh(dest);
+			}
+			case ARG: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = tmp.set(r[a], r[a + 1]).arg(); r[d + 1] = 0;
+				pc += 3;
 				break;
-			case UN_RE: 
-				dest.set(dest.re(), 0);
+			}
+			case CABS: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = Math.abs(r[a]); r[d + 1] = Math.abs(r[a + 1]);
+				pc += 3;
 				break;
-			case UN_IM: 
-				dest.set(dest.im(), 0);
+			}
+			case POLAR: {
+				int d = code[pc + 1], a = code[pc + 2];
+				tmp.set(r[a], r[a + 1]);
+				r[d] = tmp.abs(); r[d + 1] = tmp.arg();
+				pc += 3;
 				break;
-			case UN_CONJ: 
-				dest.conj(dest);
+			}
+			case FLOOR: {
+				int d = code[pc + 1], a = code[pc + 2];
+				r[d] = Math.floor(r[a]); r[d + 1] = Math.floor(r[a + 1]);
+				pc += 3;
 				break;
-			case UN_ABS: 
-				dest.set(dest.abs(), 0);
+			}
+			case POW_INT: {
+				int a = code[pc + 2];
+				tmp.set(r[a], r[a + 1]);
+				unary(tmp.powInt(tmp, code[pc + 3]), code[pc + 1]);
+				pc += 4;
 				break;
-			case UN_ARG: 
-				dest.set(dest.arg(), 0);
+			}
+			case ADD: {
+				int d = code[pc + 1], a = code[pc + 2], b = code[pc + 3];
+				double re = r[a] + r[b], im = r[a + 1] + r[b + 1];
+				r[d] = re; r[d + 1] = im;
+				pc += 4;
 				break;
-			case UN_CABS: 
-				dest.set(Math.abs(dest.re()), Math.abs(dest.im()));
+			}
+			case SUB: {
+				int d = code[pc + 1], a = code[pc + 2], b = code[pc + 3];
+				double re = r[a] - r[b], im = r[a + 1] - r[b + 1];
+				r[d] = re; r[d + 1] = im;
+				pc += 4;
 				break;
-			case UN_POLAR: 
-				dest.set(dest.abs(), dest.arg());
+			}
+			case MUL: {
+				int d = code[pc + 1], a = code[pc + 2], b = code[pc + 3];
+				double re0 = r[a], im0 = r[a + 1], re1 = r[b], im1 = r[b + 1];
+				r[d] = re0 * re1 - im0 * im1; r[d + 1] = re0 * im1 + im0 * re1;
+				pc += 4;
 				break;
-			case UN_FLOOR: 
-				dest.set(Math.floor(dest.re()), Math.floor(dest.im()));
+			}
+			case DIV: {
+				int d = code[pc + 1], a = code[pc + 2], b = code[pc + 3];
+				double re0 = r[a], im0 = r[a + 1], re1 = r[b], im1 = r[b + 1];
+				double abs = re1 * re1 + im1 * im1;
+				r[d] = (re0 * re1 + im0 * im1) / abs; r[d + 1] = (-re0 * im1 + im0 * re1) / abs;
+				pc += 4;
 				break;
-			case UN_POW_INT:
-				dest.powInt(dest, pc.instruction >> 16);
+			}
+			case POW: {
+				int a = code[pc + 2], b = code[pc + 3];
+				unary(tmp.pow(r[a], r[a + 1], r[b], r[b + 1]), code[pc + 1]);
+				pc += 4;
 				break;
-			default: throw new IllegalArgumentException("No such unary function");
 			}
-			
-			pc = pc.next;
-			
-			while(pc != null && (pc.instruction & ATOM_MASK) != 0) {
-				double re0 = dest.re(); // Save zn
-				double im0 = dest.im();
-				
-				// We got another parameter. Call recursively
-				pc = execute(pc, c, zs, n, parameters, dest);
-
-				// The next function must be a binary function (otherwise
-				// the recursive call would not have terminated)
-				
-				double re1, im1;
-				
-				if ((pc.instruction & SWAP_FLAG) == 0) {
-					re1 = dest.re();
-					im1 = dest.im();
-				} else {
-					re1 = re0;
-					im1 = im0;
-					
-					re0 = dest.re();
-					im0 = dest.im();
-				}
-
-				/* recursion is done, interpret binary function */
-				switch(pc.instruction & OP_MASK) {
-				case BIN_ADD:
-					dest.add(re0, im0, re1, im1);
-					break;
-				case BIN_SUB: 
-					dest.sub(re0, im0, re1, im1);
-					break;
-				case BIN_MUL:
-					dest.mul(re0, im0, re1, im1);
-					break;
-				case BIN_DIV: 
-					dest.div(re0, im0, re1, im1);
-					break;
-				case BIN_POW:
-					dest.pow(re0, im0, re1, im1);
-					break;
-				default: throw new IllegalArgumentException("No such binary function");
-				}
-
-				pc = pc.next;
+			case RET: {
+				int a = code[pc + 1];
+				zs.set(n + 1, r[a], r[a + 1]);
+				return;
+			}
+			default: throw new IllegalArgumentException("No such instruction: " + code[pc]);
 			}
 		}
-		
-		return pc;
+	}
+	
+	private void unary(Cplx result, int d) {
+		regs[d] = result.re();
+		regs[d + 1] = result.im();
 	}
 	
 	public String toString() {
@@ -338,9 +379,14 @@ public class Executable {
 		sb.append("\n");
 		sb.append("Instructions: [");
 		
-		for(Node n = head; n != null; n = n.next) {
-			if(n != head) sb.append("; ");
-			sb.append(Integer.toHexString(n.instruction));
+		for(int pc = 0; pc < code.length; pc += operandCount(code[pc]) + 1) {
+			if(pc > 0) sb.append("; ");
+			sb.append(NAMES[code[pc]]);
+			
+			for(int i = 1; i <= operandCount(code[pc]); i++) {
+				// Print register numbers, not offsets
+				sb.append(i <= registerOperandCount(code[pc]) ? " r" + (code[pc + i] / 2) : " " + code[pc + i]);
+			}
 		}
 		
 		sb.append("]");
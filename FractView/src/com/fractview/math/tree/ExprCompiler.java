@@ -16,21 +16,28 @@
  */
 package com.fractview.math.tree;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.fractview.math.Cplx;
 
-/** This class analyzes an expression that has been successfully parsed.
+/** This class analyzes an expression that has been successfully parsed and 
+ * compiles it into register code for Executable.
  * 
- * It creates a list of the number of required initialization values for z,
- * all constants and parameters. As an intermediate result, an Instruction Tree is created
- * (this is not necessary but it makes debugging easier), which then is serialized into 
- * a list of instructions.
+ * Compilation happens in two steps: First, all parameters and constants of all 
+ * expressions that should share them are collected (collect). Their positions in the 
+ * lists determine their registers (first the parameters, then the constants). Then, 
+ * code for each expression is generated (generateCode). Values like c or z(n-1) are 
+ * loaded only once into a register, intermediate results are kept in temporary registers 
+ * that are reused as soon as they are not needed anymore.
  */
 public class ExprCompiler {
 
@@ -56,202 +63,257 @@ public class ExprCompiler {
 		}		
 	}
 	
-	/** Compiles this expression.
-	 * Adds parameters and constants to list (if necessary). Indices for parameters and constants in
-	 * the list of instructions that is returned are based on their position in the constant and 
-	 * parameters-List. Therefore, if multiple parameters should be shared, one should reuse old
-	 * parameters-Lists.
+	/** Adds parameters and constants of this expression to the lists (if they
+	 * are not there yet). Call this for all expressions that share parameters before 
+	 * calling generateCode.
 	 * @param expr
 	 * @param constants
 	 * @param parameters
-	 * @return the last instruction put onto the list
 	 */
-	public static List<Integer> generateInstructionList(Expr expr, List<Cplx> constants, List<Var> parameters) {
-		InstructionTree tree = compile(expr, constants, parameters);
-		
-		List<Integer> instructionList = new LinkedList<Integer>();
-		tree.generateInstructionList(instructionList);
-
-		return instructionList;
-	}
-	
-	private static InstructionTree compile(Expr expr, List<Cplx> constants, List<Var> parameters) {
+	public static void collect(Expr expr, List<Cplx> constants, List<Var> parameters) {
 		if(expr instanceof Var) {
-			return parameter((Var) expr, constants, parameters);
-		}
-
-		if(expr instanceof Num) {
-			return constant((Num) expr, constants, parameters);
-		}
-
-		if(expr instanceof App) {
-			return app((App) expr, constants, parameters);
+			Var v = (Var) expr;
+			
+			if(!isPredefined(v) && !parameters.contains(v)) {
+				parameters.add(v);
+			}
+		} else if(expr instanceof Num) {
+			if(constantIndex(((Num) expr).value(null), constants) < 0) {
+				constants.add(((Num) expr).value(null));
+			}
+		} else if(expr instanceof App) {
+			App app = (App) expr;
+			
+			for(int i = 0; i < app.op().arity(); i++) {
+				if(i == 1 && isIntPow(app)) continue; // encoded in instruction
+				collect(app.get(i), constants, parameters);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported type");
 		}
-		
-		throw new IllegalArgumentException("Unsupported type");
 	}
-
-	private static InstructionTree app(App app, List<Cplx> constants, List<Var> parameters) {
-		InstructionTree[] args = new InstructionTree[app.op().arity()];
+	
+	/** Compiles this expression into register code. All parameters and constants must
+	 * have been collected before.
+	 * @param expr
+	 * @param constants
+	 * @param parameters
+	 * @return The code, register operands are offsets into the register file of Executable.
+	 */
+	public static int[] generateCode(Expr expr, List<Cplx> constants, List<Var> parameters) {
+		CodeGenerator generator = new CodeGenerator(constants, parameters);
 		
-		for(int i = 0; i < app.op().arity(); i++) {
-			args[i] = compile(app.get(i), constants, parameters);
-		}
-
-		switch(app.op()) {
-		case ADD: return new InstructionTree(Executable.BINARY_FLAG | Executable.BIN_ADD, false, 0, args);
-		case SUB: return new InstructionTree(Executable.BINARY_FLAG | Executable.BIN_SUB, false, 0, args);
-		case MUL: return new InstructionTree(Executable.BINARY_FLAG | Executable.BIN_MUL, false, 0, args);
-		case DIV: return new InstructionTree(Executable.BINARY_FLAG | Executable.BIN_DIV, false, 0, args);
-		case POW: {
-			if(args[1].opCode == Executable.ATOM_INT) {
-				// If we can encode an integer, we can use POW_INT
-				return new InstructionTree(Executable.UN_POW_INT, true, args[1].n, args[0]);
-			} else {
-				return new InstructionTree(Executable.BINARY_FLAG | Executable.BIN_POW, false, 0, args);
-			}
-		}
-		case ABS: return new InstructionTree(Executable.UN_ABS, false, 0, args);
-		case ARG: return new InstructionTree(Executable.UN_ARG, false, 0, args);
-		case ATAN: return new InstructionTree(Executable.UN_ATAN, false, 0, args);
-		case ATANH: return new InstructionTree(Executable.UN_ATANH, false, 0, args);
-		case CONJ: return new InstructionTree(Executable.UN_CONJ, false, 0, args);
-		case COS: return new InstructionTree(Executable.UN_COS, false, 0, args);
-		case COSH: return new InstructionTree(Executable.UN_COSH, false, 0, args);
-		case EXP: return new InstructionTree(Executable.UN_EXP, false, 0, args);
-		case FLOOR: return new InstructionTree(Executable.UN_FLOOR, false, 0, args);
-		case IM: return new InstructionTree(Executable.UN_IM, false, 0, args);
-		case REC: return new InstructionTree(Executable.UN_REC, false, 0, args);
-		case DREC: return new InstructionTree(Executable.UN_DREC, false, 0, args);
-		case LOG: return new InstructionTree(Executable.UN_LOG, false, 0, args);
-		case NEG: return new InstructionTree(Executable.UN_NEG, false, 0, args);
-		case RE: return new InstructionTree(Executable.UN_RE, false, 0, args);
-		case SIN: return new InstructionTree(Executable.UN_SIN, false, 0, args);
-		case SINH: return new InstructionTree(Executable.UN_SINH, false, 0, args);
-		case SQR: return new InstructionTree(Executable.UN_SQR, false, 0, args);
-		case SQRT: return new InstructionTree(Executable.UN_SQRT, false, 0, args);
-		case SREC: return new InstructionTree(Executable.UN_SREC, false, 0, args);
-		case TAN: return new InstructionTree(Executable.UN_TAN, false, 0, args);
-		case TANH: return new InstructionTree(Executable.UN_TANH, false, 0, args);
-		case CABS: return new InstructionTree(Executable.UN_CABS, false, 0, args);
-		case POLAR: return new InstructionTree(Executable.UN_POLAR, false, 0, args);
-		default: throw new IllegalArgumentException("Found function " + app.op() + 
-				" but it is not implemented. Please file a bug!");
-		}
+		int result = generator.compile(expr);
+		generator.emit(Executable.RET, result);
+		
+		return generator.code();
 	}
-
-	private static InstructionTree constant(Num num, List<Cplx> constants, List<Var> parameters) {
-		if(num.isInt()) {		
-			// If int/short, encode
-			int value = num.intValue();
-
-			if(value == (short) value) {
-				return new InstructionTree(Executable.ATOM_INT, true, (short) value);
+	
+	private static boolean isPredefined(Var v) {
+		return v.is("c") || v.is("x") || v.is("y") || v.is("n") || v.prefix().is("z");
+	}
+	
+	private static boolean isIntPow(App app) {
+		// If we can encode an integer, we can use POW_INT
+		return app.op() == Op.POW && app.get(1) instanceof Num && ((Num) app.get(1)).isInt()
+				&& ((Num) app.get(1)).intValue() == (short) ((Num) app.get(1)).intValue();
+	}
+	
+	private static int constantIndex(Cplx c, List<Cplx> constants) {
+		for(int i = 0; i < constants.size(); i++) {
+			if(constants.get(i).re() == c.re() && constants.get(i).im() == c.im()) {
+				return i;
 			}
 		}
 		
-		// Otherwise store as constant
-		int index = constants.indexOf(num.value(null));
-		
-		if(index < 0) {
-			index = constants.size();
-			constants.add(num.value(null));
-		}
-
-		return new InstructionTree(Executable.ATOM_CONST, true, index);
+		return -1;
 	}
+	
+	private static class CodeGenerator {
+		List<Cplx> constants;
+		List<Var> parameters;
+		
+		List<Integer> code = new ArrayList<Integer>();
+		
+		// Registers that hold loaded values like c or z(n - k). Keys are the load
+		// instruction and its argument.
+		Map<String, Integer> loaded = new HashMap<String, Integer>();
+		
+		int registerCount; // registers in use so far
+		int firstTemp; // registers below this one are never overwritten
+		
+		LinkedList<Integer> freeTemps = new LinkedList<Integer>();
+		Set<Integer> temps = new TreeSet<Integer>();
 
-	private static InstructionTree parameter(Var v, List<Cplx> constants, List<Var> parameters) {
-		if(v.is("c")) {
-			return new InstructionTree(Executable.ATOM_C, false, 0);
-		} else if(v.prefix().is("z")) { // z = z0, z1, z2 etc...
-			Integer index = v.index();
+		CodeGenerator(List<Cplx> constants, List<Var> parameters) {
+			this.constants = constants;
+			this.parameters = parameters;
 			
-			if(index == null || index == 0) {
-				return new InstructionTree(Executable.ATOM_Z, false, 0);
-			} else {
-				return new InstructionTree(Executable.ATOM_Z_LAST, true, index);
-			}
-		} else if(v.is("x")) {
-			return new InstructionTree(Executable.ATOM_X, false, 0);
-		} else if(v.is("y")) {
-			return new InstructionTree(Executable.ATOM_Y, false, 0);
-		} else if(v.is("n")) {
-			return new InstructionTree(Executable.ATOM_N, false, 0);
-		} else {
-			// It is a parameter
-			int index = parameters.indexOf(v);
+			this.registerCount = parameters.size() + constants.size();
+		}
+		
+		int[] code() {
+			int[] array = new int[code.size()];
 			
-			if(index == -1) {
-				index = parameters.size();
-				parameters.add(v);
+			for(int i = 0; i < array.length; i++) {
+				array[i] = code.get(i);
 			}
 			
-			return new InstructionTree(Executable.ATOM_VAR, true, index);
+			return array;
 		}
-	}
-	
-	
-	private static class InstructionTree {
-		// We do not create a list of instructions immediately since we can merge 
-		// instructions into single instructions. This is done in the instructionList-method
-		
-		int opCode;
-		boolean usesN;
-		int n;
 		
-		InstructionTree[] sub;
-		
-		InstructionTree(int opCode, boolean usesN, int n, InstructionTree...sub) {
-			this.opCode = opCode;
-			this.usesN = usesN;
-			this.n = n;
+		void emit(int opCode, int...args) {
+			code.add(opCode);
 			
-			this.sub = sub;
+			for(int i = 0; i < args.length; i++) {
+				// Registers are stored as offsets into the register file
+				code.add(i < Executable.registerOperandCount(opCode) ? 2 * args[i] : args[i]);
+			}
 		}
 		
-		boolean isAtom() {
-			return sub.length == 0; 
+		int newTemp() {
+			int r = freeTemps.isEmpty() ? registerCount++ : freeTemps.removeFirst();
+			temps.add(r);
+			return r;
 		}
 		
-		void generateInstructionList(List<Integer> instructions) {
-			int merge = -1;
-
-			for(int i = 0; i < sub.length; i++) {
-				if(merge < 0 && sub[i].isAtom() && !(sub[i].usesN && this.usesN)) {
-					// We can encode argument i
-					merge = i;
-				} else {
-					// Add argument to instruction list
-					sub[i].generateInstructionList(instructions);
-				}
+		void free(int r) {
+			if(temps.remove(r)) {
+				freeTemps.addFirst(r);
 			}
+		}
+		
+		int load(int opCode, int k) {
+			String key = opCode + ":" + k;
+			Integer r = loaded.get(key);
 			
-			int instruction = opCode | n << 16;
-			
-			if(merge >= 0) {
-				instruction |= sub[merge].opCode | sub[merge].n << 16;
+			if(r == null) {
+				// Loaded values stay in their register.
+				r = registerCount++;
+				loaded.put(key, r);
 				
-				if(merge == 0 && sub.length == 2) {
-					instruction |= Executable.SWAP_FLAG;
+				if(opCode == Executable.LD_Z) {
+					emit(opCode, r, k);
+				} else {
+					emit(opCode, r);
 				}
 			}
 			
-			instructions.add(instruction);
+			return r;
 		}
 		
-		public String toString() {
-			String s = "[" + Integer.toHexString(opCode) + ", " + usesN + ":" + n + "] ( ";
-			
-			for(InstructionTree child : sub) {
-				s += child.toString() + " ";
+		/**
+		 * @param expr
+		 * @return register that contains the value of expr
+		 */
+		int compile(Expr expr) {
+			if(expr instanceof Var) {
+				return variable((Var) expr);
+			}
+
+			if(expr instanceof Num) {
+				int index = constantIndex(((Num) expr).value(null), constants);
+				
+				if(index < 0) throw new IllegalArgumentException("Constant was not collected");
+				
+				return parameters.size() + index;
+			}
+
+			if(expr instanceof App) {
+				return app((App) expr);
 			}
 			
-			s += ")";
+			throw new IllegalArgumentException("Unsupported type");
+		}
+		
+		int variable(Var v) {
+			if(v.is("c")) {
+				return load(Executable.LD_C, 0);
+			} else if(v.prefix().is("z")) { // z = z0, z1, z2 etc...
+				Integer index = v.index();
+				return load(Executable.LD_Z, index == null ? 0 : index);
+			} else if(v.is("x")) {
+				return load(Executable.LD_X, 0);
+			} else if(v.is("y")) {
+				return load(Executable.LD_Y, 0);
+			} else if(v.is("n")) {
+				return load(Executable.LD_N, 0);
+			} else {
+				// It is a parameter
+				int index = parameters.indexOf(v);
+				
+				if(index < 0) throw new IllegalArgumentException("Parameter " + v + " was not collected");
+				
+				return index;
+			}
+		}
+		
+		int app(App app) {
+			if(isIntPow(app)) {
+				int arg = compile(app.get(0));
+				free(arg);
+				int dest = newTemp();
+				emit(Executable.POW_INT, dest, arg, ((Num) app.get(1)).intValue());
+				return dest;
+			}
 			
-			return s;
+			int opCode = opCode(app.op());
+
+			if(app.op().arity() == 2) {
+				int arg0 = compile(app.get(0));
+				int arg1 = compile(app.get(1));
+				
+				// Instructions may overwrite their arguments.
+				free(arg0);
+				free(arg1);
+				
+				int dest = newTemp();
+				emit(opCode, dest, arg0, arg1);
+				return dest;
+			} else {
+				int arg = compile(app.get(0));
+				free(arg);
+				
+				int dest = newTemp();
+				emit(opCode, dest, arg);
+				return dest;
+			}
+		}
+		
+		int opCode(Op op) {
+			switch(op) {
+			case ADD: return Executable.ADD;
+			case SUB: return Executable.SUB;
+			case MUL: return Executable.MUL;
+			case DIV: return Executable.DIV;
+			case POW: return Executable.POW;
+			case ABS: return Executable.ABS;
+			case ARG: return Executable.ARG;
+			case ATAN: return Executable.ATAN;
+			case ATANH: return Executable.ATANH;
+			case CONJ: return Executable.CONJ;
+			case COS: return Executable.COS;
+			case COSH: return Executable.COSH;
+			case EXP: return Executable.EXP;
+			case FLOOR: return Executable.FLOOR;
+			case IM: return Executable.IM;
+			case REC: return Executable.REC;
+			case DREC: return Executable.DREC;
+			case LOG: return Executable.LOG;
+			case NEG: return Executable.NEG;
+			case RE: return Executable.RE;
+			case SIN: return Executable.SIN;
+			case SINH: return Executable.SINH;
+			case SQR: return Executable.SQR;
+			case SQRT: return Executable.SQRT;
+			case SREC: return Executable.SREC;
+			case TAN: return Executable.TAN;
+			case TANH: return Executable.TANH;
+			case CABS: return Executable.CABS;
+			case POLAR: return Executable.POLAR;
+			default: throw new IllegalArgumentException("Found function " + op + 
+					" but it is not implemented. Please file a bug!");
+			}
 		}
 	}
-
-
-}
\ No newline at end of file
+}
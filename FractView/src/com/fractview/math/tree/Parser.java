@@ -22,6 +22,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
 
 /** Call me crazy but I think figuring out how I can use ANTLR here
  * might have taken more time than implementing this parser.
@@ -390,8 +391,9 @@ public class Parser {
 		List<Cplx> constants = new LinkedList<Cplx>();
 		List<Var> parameters = new LinkedList<Var>();
 		
-		List<Integer> l = ExprCompiler.generateInstructionList(expr, constants, parameters);
-		Executable qu = new Executable(l, constants.toArray(new Cplx[constants.size()]));
+		ExprCompiler.collect(expr, constants, parameters);
+		int[] code = ExprCompiler.generateCode(expr, constants, parameters);
+		Executable qu = new Executable(code, constants.toArray(new Cplx[constants.size()]), parameters.size());
 		
 		long time1 = 0;
 		long time2 = 0;
@@ -400,6 +402,9 @@ public class Parser {
 			
 		Cplx[] orbit = new Cplx[max];
 		for(int i = 0; i < max; ++i) orbit[i] = new Cplx();
+		
+		CplxArray zs = new CplxArray(max);
+		zs.ensureIndex(max - 1);
 			
 		Cplx c = new Cplx(-0.6, 0.1);
 
@@ -419,7 +424,7 @@ public class Parser {
 			time2 -= System.currentTimeMillis();
 	
 			for(int n = 1; n < max; ++n) {
-				qu.execute(c, orbit, n, null, orbit[n]);
+				qu.execute(c, zs, n - 1);
 				//, c, orbit[n-1], orbit, n);
 				//System.out.println(n + ": " + orbit[n]);
 			}
@@ -1,9 +1,5 @@
 package com.fractview.modes;
 
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-
 public abstract class AbstractImgCache {
 	
 	protected int width;
@@ -12,19 +8,17 @@ public abstract class AbstractImgCache {
 	protected int centerX;
 	protected int centerY;
 	
-	protected Bitmap bitmap;
-	//private Canvas canvas;
+	protected PixelSink sink;
 	
 	private Preferences prefs;
 	
-	protected AbstractImgCache(Preferences prefs, int width, int height) {
+	protected AbstractImgCache(Preferences prefs, PixelSink sink) {
 		this.prefs = prefs;
-		this.width = width;
-		this.height = height;
+		this.width = sink.width();
+		this.height = sink.height();
 		this.centerX = width / 2;
 		this.centerY = height / 2;
-		this.bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-		//this.canvas = new Canvas(bitmap);
+		this.sink = sink;
 	}
 	
 	public Preferences prefs() {
@@ -41,12 +35,8 @@ public abstract class AbstractImgCache {
 		clear();
 	}
 	
-	/*public Canvas canvas() {
-		return canvas;
-	}*/
-	
-	public Bitmap bitmap() {
-		return bitmap;
+	public PixelSink sink() {
+		return sink;
 	}
 
 	public int width() {
@@ -57,20 +47,15 @@ public abstract class AbstractImgCache {
 		return height;
 	}
 	
-	public void clearBitmap() {
-		bitmap.eraseColor(android.graphics.Color.TRANSPARENT);
+	public void clearImage() {
+		sink.clear();
 	}
 	
-	public void resizeBitmap(int width, int height) {
-		this.bitmap = null;
-		
-		System.gc();
-		
+	public void resizeImage(int width, int height) {
 		this.width = width;
 		this.height = height;
 		
-		this.bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-		//this.canvas = new Canvas(bitmap);
+		sink.resize(width, height);
 	}
 	
 	public abstract void clear();
@@ -79,7 +64,7 @@ public abstract class AbstractImgCache {
 
 	
 	/** Calculates the image associated with this Preferences
-	 * in Bitmap. Try to favor parts around x0/y0 in calculation (these parameters
+	 * in the sink. Try to favor parts around x0/y0 in calculation (these parameters
 	 * might be ignored).
 	 * @return An instance of the task-interface to manage background threads.
 	 */
@@ -101,6 +86,13 @@ public abstract class AbstractImgCache {
 
 		double getRunTime();
 		
+		/**
+		 * Copies the parts of the image that were calculated since the last call
+		 * into the bitmap. Should be called from one thread only (usually the UI thread),
+		 * before the bitmap is used.
+		 */
+		void publish();
+		
 		// TODO: Things that are running 
 		//int progress();
 	}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+import java.util.Arrays;
+
+/**
+ * Pixel sink that keeps the colors in an int-array, used for headless rendering.
+ */
+public class ArraySink implements PixelSink {
+	
+	private int width;
+	private int height;
+	
+	private int[] pixels;
+	
+	public ArraySink(int width, int height) {
+		resize(width, height);
+	}
+	
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+	
+	/**
+	 * @return The colors row by row
+	 */
+	public int[] pixels() {
+		return pixels;
+	}
+
+	@Override
+	public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		for(int row = 0; row < height; row++) {
+			System.arraycopy(pixels, offset + row * stride, this.pixels, (y + row) * this.width + x, width);
+		}
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(pixels, 0);
+	}
+
+	@Override
+	public void resize(int width, int height) {
+		this.pixels = null;
+		
+		this.width = width;
+		this.height = height;
+		
+		this.pixels = new int[width * height];
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Colors of an image that is split into the tiles of a TileGrid. Workers write
+ * into pixels without locking and mark the tile dirty afterwards. A publisher 
+ * copies dirty tiles into a sink. Tiles that are modified while they are 
+ * published are marked dirty again, hence they are copied in the next call.
+ */
+public class PixelBuffer {
+	
+	private int width;
+	private int height;
+	
+	private TileGrid grid;
+	
+	private int[] pixels;
+	private AtomicIntegerArray dirty;
+	
+	public PixelBuffer(TileGrid grid) {
+		this.grid = grid;
+		this.width = grid.width();
+		this.height = grid.height();
+		
+		this.pixels = new int[width * height];
+		this.dirty = new AtomicIntegerArray(grid.count());
+	}
+	
+	/**
+	 * @return The colors of the image, row by row. Each tile must only be 
+	 * written by one thread at a time.
+	 */
+	public int[] pixels() {
+		return pixels;
+	}
+	
+	public int width() {
+		return width;
+	}
+	
+	public int height() {
+		return height;
+	}
+	
+	/** Must be called after the pixels of tile were written. 
+	 * @param tile
+	 */
+	public void markDirty(int tile) {
+		dirty.set(tile, 1); // Volatile write, publishes the pixels.
+	}
+	
+	/** Copies all dirty tiles into sink. Only one thread publishes at a time.
+	 * @param sink
+	 * @return The number of tiles that were copied.
+	 */
+	public synchronized int publish(PixelSink sink) {
+		int tileSize = grid.tileSize();
+		int count = 0;
+		
+		for(int tile = 0; tile < grid.count(); tile++) {
+			// Clear flag before copying so that new modifications are not lost.
+			if(dirty.getAndSet(tile, 0) != 0) {
+				int x0 = Math.max(grid.x(tile), 0);
+				int y0 = Math.max(grid.y(tile), 0);
+				int x1 = Math.min(grid.x(tile) + tileSize, width);
+				int y1 = Math.min(grid.y(tile) + tileSize, height);
+				
+				sink.setPixels(pixels, y0 * width + x0, width, x0, y0, x1 - x0, y1 - y0);
+				
+				count++;
+			}
+		}
+		
+		return count;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+/**
+ * Target of the colors that are calculated in an image cache, 
+ * e.g. a bitmap on Android or an int-array for headless rendering.
+ */
+public interface PixelSink {
+	int width();
+	
+	int height();
+	
+	/** Same as in android.graphics.Bitmap: Copies a rectangle of width x height 
+	 * colors from pixels (starting at offset, rows are stride apart) to x, y.
+	 */
+	void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+	
+	/** Sets all pixels to transparent
+	 */
+	void clear();
+	
+	/** Replaces the content by a transparent image of the new size
+	 * @param width
+	 * @param height
+	 */
+	void resize(int width, int height);
+}
@@ -18,5 +18,5 @@ package com.fractview.modes;
 
 
 public interface Preferences {	
-	AbstractImgCache createImgCache(int width, int height);
+	AbstractImgCache createImgCache(PixelSink sink);
 }
@@ -17,13 +17,14 @@
 package com.fractview.modes;
 
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import android.graphics.Paint;
-import android.os.Process;
-import android.util.Log;
+
+import com.fractview.tools.Log;
 
 public class RasterTask implements AbstractImgCache.Task {
 	
@@ -32,10 +33,15 @@ public class RasterTask implements AbstractImgCache.Task {
 	public static int INIT_STEP_SIZE = 64; // must be multiple of next value
 	public static int STEP_SIZE_DIVISOR = 4; 
 
-	private static final int THREAD_COUNT = 4;
+	// Tiles must be aligned to the coarsest grid.
+	public static final int TILE_SIZE = INIT_STEP_SIZE;
+	
+	// Rectangles of at most this width or height are not subdivided any further.
+	public static final int MIN_SUBDIVISION_SIZE = 6;
 	
-	// Thread priority (low priority keeps device responsive.)
-	private static final int THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND;
+	// Thread priority (low priority keeps device responsive.) On Android, 
+	// this is mapped to the nice value of Process.THREAD_PRIORITY_BACKGROUND.
+	private static final int THREAD_PRIORITY = 4;
 	
 	private Rasterable rasterable;
 	
@@ -44,42 +50,133 @@ public class RasterTask implements AbstractImgCache.Task {
 	
 	private long startTime;
 
+	private int threadCount;
 	private Environment[] envs;
 	
+	private TileGrid grid;
+	private TileScheduler scheduler;
+	
+	// Colors of the whole image. Blocks of earlier passes stay in here,
+	// so that later passes only have to draw blocks of new points.
+	private PixelBuffer buffer;
+	private AbstractImgCache cache;
+	
+	// Set if the statistics changed in the last barrier. Only then the 
+	// colors of points of earlier passes are calculated again.
+	private volatile boolean statsChanged;
+	
 	private ExecutorService executorService;
 	
+	private boolean subdivide = false;
+	private boolean antiAlias = false;
+	
+	// Provisional data of the cache that is drawn before the first pass, null if there is none.
+	private Previewable previewable;
+	private int previewStepSize;
+	
+	// Tiles that are completely covered by the preview. Passes that are
+	// coarser than the preview are skipped in them.
+	private boolean[] previewed;
+	
 	private CyclicBarrier nextStepSizeBarrier;
 	
-	private Runnable updateStatsRunnable = new Runnable() {
+	private Runnable nextStepSizeRunnable = new Runnable() {
 		@Override
 		public void run() {
-			updateStats();
+			statsChanged = updateStats();
+			
+			// All workers are waiting, so we can safely start the next pass.
+			scheduler.start(grid.count());
 		}
 	};
 
-	
 	public RasterTask(Rasterable rasterable) {
+		this(rasterable, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public RasterTask(Rasterable rasterable, int threadCount) {
+		this(rasterable, threadCount, new WorkStealingScheduler(threadCount));
+	}
+
+	public RasterTask(Rasterable rasterable, int threadCount, TileScheduler scheduler) {
 		this.rasterable = rasterable;
+		this.threadCount = threadCount;
+		this.scheduler = scheduler;
 		
-		this.envs = new Environment[THREAD_COUNT];
+		this.envs = new Environment[threadCount];
 		
-		executorService = Executors.newFixedThreadPool(THREAD_COUNT);
-		nextStepSizeBarrier = new CyclicBarrier(THREAD_COUNT, updateStatsRunnable);
+		executorService = newExecutorService(threadCount, TAG);
+		nextStepSizeBarrier = new CyclicBarrier(threadCount, nextStepSizeRunnable);
+	}
+
+	/** Creates a thread pool for tasks of a cache.
+	 * @param threadCount
+	 * @param name Name of the threads
+	 * @return
+	 */
+	static ExecutorService newExecutorService(int threadCount, final String name) {
+		return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				// Use lower thread priority to have less impact on our runtime
+				thread.setPriority(THREAD_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/** If set, the last pass traces the borders of rectangles and fills those 
+	 * in which all border points are equal without calculating them. This is 
+	 * faster but it might miss thin structures, hence it is off by default. It
+	 * requires environments that implement FillableEnvironment and must be
+	 * set before the task is started.
+	 * @param subdivide
+	 */
+	public void setSubdivide(boolean subdivide) {
+		this.subdivide = subdivide;
+	}
+	
+	/** If set, a last pass after all points are known adds samples inside of 
+	 * pixels at edges (see AntiAliasingEnvironment). It must be set before the
+	 * task is started.
+	 * @param antiAlias
+	 */
+	public void setAntiAlias(boolean antiAlias) {
+		this.antiAlias = antiAlias;
 	}
 
 	public void start(AbstractImgCache cache) {
-		Log.d(TAG, "starting task...");
+		Log.d(TAG, "starting task with " + threadCount + " threads...");
 		
 		rasterable.initStatistics();
 		
+		grid = new TileGrid(cache.width, cache.height, cache.centerX, cache.centerY, TILE_SIZE);
+		scheduler.start(grid.count());
+		
+		if(rasterable instanceof Previewable) {
+			previewable = (Previewable) rasterable;
+			previewStepSize = previewable.previewStepSize();
+			
+			if(previewStepSize > 0) {
+				previewed = new boolean[grid.count()];
+			}
+		}
+		
+		this.cache = cache;
+		this.buffer = new PixelBuffer(grid);
+		
 		startTime = System.currentTimeMillis();
 		
 		running = true;
 		
 		// Create threads
-		for(int i = 0; i < THREAD_COUNT; i++) {
+		for(int i = 0; i < threadCount; i++) {
 			executorService.submit(new Worker(i, cache));
 		}
+		
+		// Threads terminate after the workers, so that join returns.
+		executorService.shutdown();
 	}
 	
 	@Override
@@ -88,6 +185,13 @@ public class RasterTask implements AbstractImgCache.Task {
 	}
 
 	
+	@Override
+	public void publish() {
+		if(buffer != null) {
+			buffer.publish(cache.sink);
+		}
+	}
+	
 	public boolean isCancelled() {
 		return cancelled;
 	}
@@ -96,10 +200,17 @@ public class RasterTask implements AbstractImgCache.Task {
 		return running;
 	}
 	
-	private void updateStats() {
-		for(int i = 0; i < THREAD_COUNT; i++) {
-			RasterTask.this.rasterable.updateStatisticsFromEnv(envs[i]);
+	/**
+	 * @return true if the statistics changed.
+	 */
+	private boolean updateStats() {
+		boolean changed = false;
+		
+		for(int i = 0; i < threadCount; i++) {
+			changed |= RasterTask.this.rasterable.updateStatisticsFromEnv(envs[i]);
 		}
+		
+		return changed;
 	}
 	
 	public void cancel() {
@@ -126,8 +237,6 @@ public class RasterTask implements AbstractImgCache.Task {
 		private int index;
 		private AbstractImgCache cache;
 		private Environment env;
-		
-		Paint paint = new Paint(); // Create one paint per worker.
 
 		Worker(int index, AbstractImgCache cache) {
 			this.cache = cache;
@@ -139,13 +248,7 @@ public class RasterTask implements AbstractImgCache.Task {
 		}
 
 		int pointCount = 0;
-		
-		/*private void pix(int x, int y) throws CancelException {
-			if(isCancelled()) throw new CancelException();
-			paint.setColor(env.color(x, y));
-			cache.canvas().drawPoint(x, y, paint);
-			pointCount ++;
-		}*/
+		int tileCount = 0;
 		
 		private int retpix(int x, int y) throws CancelException {
 			if(isCancelled()) throw new CancelException();
@@ -153,211 +256,272 @@ public class RasterTask implements AbstractImgCache.Task {
 			return env.color(x, y);
 		}
 		
-		int paintCirc(int rad, int x0, int y0, int x1, int y1, int stepSize, int[] chunkCache, int chunkIndex) throws CancelException {
-			// draw top
-			if(-rad >= y0) {
-				int y = -rad * stepSize + cache.centerY;
-				int lb = Math.max(x0, -rad); // left bound (x0 is incl)
-				// TODO: Shouldn't it be rad+1? No, but think it through and write a nice comment on it.
-				int rb = Math.min(x1, rad + 1); // right bound (x1 is excl)
-
-				// Get chunk
-				int d = (rb - lb);
-				rb = lb + d * (chunkIndex + 1) / THREAD_COUNT;
-				lb += d * chunkIndex / THREAD_COUNT;
-				
-				int chunkWidth = (rb - lb) * stepSize; 
-
-				for(int x = lb; x < rb; ++x) {
-					//pix(x * stepSize + cache.centerX, y);
-					int c = retpix(x * stepSize + cache.centerX, y);
-					
-					int offset = (x - lb) * stepSize;
-					
-					for(int i = 0; i < stepSize; ++i) {
-						for(int j = 0; j < stepSize; ++j) {
-							chunkCache[offset + j] = c;
-						}
-						offset += chunkWidth;
-					}
-				}
-
-				// draw line that we just calculated
-				synchronized(cache.bitmap) {
-					cache.bitmap.setPixels(chunkCache, 0, chunkWidth, lb * stepSize + cache.centerX, y, chunkWidth, stepSize);
-				}
-				
-				chunkIndex = (chunkIndex + 1) % THREAD_COUNT;
-			}
-
-			// draw right
-			if(rad + 1 < x1) {
-				int x = (rad + 1) * stepSize + cache.centerX;
+		/** Draws one tile using blocks of stepSize x stepSize pixels. The color of a block
+		 * is the one of its top left pixel (or the first pixel inside the image if the
+		 * block is at the border). 
+		 * 
+		 * If lastStepSize is not 0, the tile was drawn before with that step size. Blocks 
+		 * whose pixel was already drawn then still have the correct color, they are only
+		 * drawn again if the statistics changed.
+		 */
+		void paintTile(int tile, int stepSize, int lastStepSize) throws CancelException {
+			paintTile(tile, stepSize, lastStepSize, true);
+		}
+		
+		/** If draw is false, the points of the blocks are only calculated (so that 
+		 * they are in the statistics) but the tile is not modified.
+		 */
+		void paintTile(int tile, int stepSize, int lastStepSize, boolean draw) throws CancelException {
+			int tx = grid.x(tile);
+			int ty = grid.y(tile);
+			
+			// Clip tile to image
+			int x0 = Math.max(tx, 0);
+			int y0 = Math.max(ty, 0);
+			int x1 = Math.min(tx + TILE_SIZE, cache.width);
+			int y1 = Math.min(ty + TILE_SIZE, cache.height);
+			
+			int width = cache.width;
+			int[] pixels = buffer.pixels();
+			
+			boolean recolor = draw && (lastStepSize == 0 || statsChanged);
+			
+			for(int by = ty; by < ty + TILE_SIZE; by += stepSize) {
+				int by0 = Math.max(by, y0);
+				int by1 = Math.min(by + stepSize, y1);
 				
-				int tb = Math.max(y0, -rad);
-				int bb = Math.min(y1, rad + 1); // bottom bound (y1 is excl)
+				if(by0 >= by1) continue;
 				
-				// Get chunk
-				int d = (bb - tb);
-				bb = tb + d * (chunkIndex + 1) / THREAD_COUNT;
-				tb += d * chunkIndex / THREAD_COUNT;
+				// Pixel of the enclosing block of the last pass
+				int lastBy0 = lastStepSize == 0 ? -1 : 
+					Math.max(ty + (by - ty) / lastStepSize * lastStepSize, y0);
 				
-				for(int y = tb; y < bb; ++y) {
-					//pix(x, y * stepSize + cache.centerY);
-					int c = retpix(x, (y + cache.centerY  / stepSize) * stepSize);
+				for(int bx = tx; bx < tx + TILE_SIZE; bx += stepSize) {
+					int bx0 = Math.max(bx, x0);
+					int bx1 = Math.min(bx + stepSize, x1);
 					
-					int offset = (y - tb) * stepSize * stepSize;
+					if(bx0 >= bx1) continue;
 					
-					for(int i = 0; i < stepSize * stepSize; ++i) {
-						chunkCache[offset + i] = c;
+					if(!recolor && by0 == lastBy0 && 
+							bx0 == Math.max(tx + (bx - tx) / lastStepSize * lastStepSize, x0)) {
+						// Same pixel as in the last pass, hence the block 
+						// already has the right color.
+						continue;
 					}
-				}
-				
-				// draw line that we just calculated
-				int chunkHeight = (bb - tb) * stepSize; 
-				
-				synchronized(cache.bitmap) {
-					cache.bitmap.setPixels(chunkCache, 0, stepSize, x, tb * stepSize + cache.centerY, stepSize, chunkHeight);
-				}
-				
-				chunkIndex = (chunkIndex + 1) % THREAD_COUNT;
-			}
-			
-			//chunkIndex = (chunkIndex + 1) %  THREAD_COUNT;
-
-			// draw bottom
-			if(rad + 1 < y1) {
-				int y = (rad + 1) * stepSize + cache.centerY;
-				
-				int lb = Math.max(x0 - 1, -rad) + 1; // x0 is incl
-				int rb = Math.min(x1 - 1, rad + 1) + 1;
-				
-				// Get chunk
-				int d = (rb - lb);
-				rb = lb + d * (chunkIndex + 1) / THREAD_COUNT;
-				lb += d * chunkIndex / THREAD_COUNT;
-				
-				int chunkWidth = (rb - lb) * stepSize;
-				
-				for(int x = lb; x < rb; ++x) {
-					//pix(x * stepSize + cache.centerX, y);
-					int c = retpix(x * stepSize + cache.centerX, y);
 					
-					int offset = (x - lb) * stepSize;
+					int c = retpix(bx0, by0);
+					
+					if(!draw) continue;
 					
-					for(int i = 0; i < stepSize; ++i) {
-						for(int j = 0; j < stepSize; ++j) {
-							chunkCache[offset + j] = c;
+					for(int y = by0; y < by1; ++y) {
+						int offset = y * width;
+						
+						for(int x = bx0; x < bx1; ++x) {
+							pixels[offset + x] = c;
 						}
-
-						offset += chunkWidth;
 					}
 				}
+			}
+			
+			// The publisher will draw the tile that we just calculated
+			if(draw) buffer.markDirty(tile);
+			
+			tileCount++;
+		}
+
+		/** Calculates all points of a tile that cannot be filled by subdivision
+		 * and then draws it.
+		 */
+		void paintTileSubdivided(int tile, int lastStepSize) throws CancelException {
+			FillableEnvironment fillable = (FillableEnvironment) env;
+			
+			int tx = grid.x(tile);
+			int ty = grid.y(tile);
+			
+			subdivide(fillable, 
+					Math.max(tx, 0), Math.max(ty, 0), 
+					Math.min(tx + TILE_SIZE, cache.width), Math.min(ty + TILE_SIZE, cache.height));
+			
+			// All points are known now.
+			paintTile(tile, 1, lastStepSize);
+		}
+		
+		/** Draws the preview of the cache into a tile and remembers
+		 * whether it covers the whole tile.
+		 */
+		void paintPreview(int tile) throws CancelException {
+			if(isCancelled()) throw new CancelException();
+			
+			int tx = grid.x(tile);
+			int ty = grid.y(tile);
+			
+			int x0 = Math.max(tx, 0);
+			int x1 = Math.min(tx + TILE_SIZE, cache.width);
+			int y1 = Math.min(ty + TILE_SIZE, cache.height);
+			
+			boolean covered = true;
+			
+			for(int y = Math.max(ty, 0); y < y1; y++) {
+				covered &= previewable.previewColors(buffer.pixels(), y * cache.width + x0, y * cache.width + x1);
+			}
+			
+			previewed[tile] = covered;
+			
+			buffer.markDirty(tile);
+		}
+		
+		/** Draws all pixels of a tile with additional samples at edges. 
+		 */
+		void paintTileAntiAliased(int tile) throws CancelException {
+			AntiAliasingEnvironment antiAliasing = (AntiAliasingEnvironment) env;
+			
+			int tx = grid.x(tile);
+			int ty = grid.y(tile);
+			
+			int x0 = Math.max(tx, 0);
+			int x1 = Math.min(tx + TILE_SIZE, cache.width);
+			int y1 = Math.min(ty + TILE_SIZE, cache.height);
+			
+			int[] pixels = buffer.pixels();
+			
+			for(int y = Math.max(ty, 0); y < y1; y++) {
+				if(isCancelled()) throw new CancelException();
 				
-				// draw line that we just calculated
-				synchronized(cache.bitmap) {
-					cache.bitmap.setPixels(chunkCache, 0, chunkWidth, lb * stepSize + cache.centerX, y, chunkWidth, stepSize);
+				for(int x = x0; x < x1; x++) {
+					pixels[x + y * cache.width] = antiAliasing.antiAliasedColor(x, y);
 				}
-				
-				chunkIndex = (chunkIndex + 1) % THREAD_COUNT;
 			}
 			
-			// draw left		
-			if(-rad >= x0) {
-				int x = -rad * stepSize + cache.centerX;
-				
-				int tb = Math.max(y0 - 1, -rad) + 1; // y0 is incl bound
-				int bb = Math.min(y1 - 1, rad + 1) + 1;
-				
-				int d = (bb - tb);
-				bb = tb + d * (chunkIndex + 1) / THREAD_COUNT;
-				tb += d * chunkIndex / THREAD_COUNT;
-				
-				for(int y = tb; y < bb; ++y) {
-					//pix(x, y * stepSize + cache.centerY);
-					int c = retpix(x, y * stepSize + cache.centerY);
-					int offset = (y - tb) * stepSize * stepSize;
-					
-					for(int i = 0; i < stepSize * stepSize; ++i) {
-						chunkCache[offset + i] = c;
+			buffer.markDirty(tile);
+		}
+		
+		private int retkey(FillableEnvironment fillable, int x, int y) throws CancelException {
+			if(isCancelled()) throw new CancelException();
+			return fillable.key(x, y);
+		}
+		
+		/** Mariani-Silver: If all points on the border of the rectangle x0, y0, x1, y1
+		 * (upper bounds exclusive) have the same key, the inside is filled, otherwise 
+		 * the rectangle is split into four parts.
+		 */
+		private void subdivide(FillableEnvironment fillable, int x0, int y0, int x1, int y1) throws CancelException {
+			if(x1 - x0 <= MIN_SUBDIVISION_SIZE || y1 - y0 <= MIN_SUBDIVISION_SIZE) {
+				for(int y = y0; y < y1; y++) {
+					for(int x = x0; x < x1; x++) {
+						retkey(fillable, x, y);
 					}
 				}
 				
-				// draw line that we just calculated
-				int chunkHeight = (bb - tb) * stepSize; 
-				
-				synchronized(cache.bitmap) {
-					cache.bitmap.setPixels(chunkCache, 0, stepSize, x, tb * stepSize + cache.centerY, stepSize, chunkHeight);
+				return;
+			}
+			
+			int key = retkey(fillable, x0, y0);
+			boolean uniform = true;
+			
+			// Do not stop at the first different point, the border
+			// will be needed by the subdivisions anyways.
+			for(int x = x0; x < x1; x++) {
+				uniform &= retkey(fillable, x, y0) == key;
+				uniform &= retkey(fillable, x, y1 - 1) == key;
+			}
+			
+			for(int y = y0 + 1; y < y1 - 1; y++) {
+				uniform &= retkey(fillable, x0, y) == key;
+				uniform &= retkey(fillable, x1 - 1, y) == key;
+			}
+			
+			if(uniform) {
+				for(int y = y0 + 1; y < y1 - 1; y++) {
+					for(int x = x0 + 1; x < x1 - 1; x++) {
+						fillable.fill(x, y, x0, y0);
+					}
 				}
+			} else {
+				int xm = (x0 + x1) / 2;
+				int ym = (y0 + y1) / 2;
 				
-				chunkIndex = (chunkIndex + 1) % THREAD_COUNT;
+				subdivide(fillable, x0, y0, xm, ym);
+				subdivide(fillable, xm, y0, x1, ym);
+				subdivide(fillable, x0, ym, xm, y1);
+				subdivide(fillable, xm, ym, x1, y1);
 			}
-			
-			return chunkIndex;
 		}
 
 		private void paintFull() throws CancelException, InterruptedException, BrokenBarrierException {
+			boolean fill = subdivide && env instanceof FillableEnvironment;
 			
-			int[] chunkCache = new int[INIT_STEP_SIZE * (Math.max(cache.width, cache.height) + (THREAD_COUNT - 1)) / THREAD_COUNT];
+			int lastStepSize = 0; // No pass yet.
 			
-			for(int stepSize = INIT_STEP_SIZE; stepSize > 0; stepSize /= STEP_SIZE_DIVISOR) {
-				int x0 = -cache.centerX; // incl
-				int y0 = -cache.centerY; // incl
-				int x1 = cache.width - cache.centerX; // excl
-				int y1 = cache.height - cache.centerY; // excl
+			if(previewed != null) {
+				for(int tile = scheduler.nextTile(index); tile >= 0; tile = scheduler.nextTile(index)) {
+					paintPreview(tile);
+				}
 				
-				x0 /= stepSize;
-				x1 /= stepSize;
-				y0 /= stepSize;
-				y1 /= stepSize;
+				nextStepSizeBarrier.await();
+			}
+			
+			for(int stepSize = INIT_STEP_SIZE; stepSize > 0; stepSize /= STEP_SIZE_DIVISOR) {
+				for(int tile = scheduler.nextTile(index); tile >= 0; tile = scheduler.nextTile(index)) {
+					int tileLastStepSize = lastStepSize;
+					
+					if(previewed != null && previewed[tile]) {
+						if(stepSize > previewStepSize) {
+							// The preview is more detailed than this pass, hence it is kept.
+							// The points are still needed for the statistics.
+							paintTile(tile, stepSize, lastStepSize, false);
+							continue;
+						}
+						
+						// First pass that is drawn in this tile, it must be drawn completely.
+						if(lastStepSize > previewStepSize) tileLastStepSize = 0;
+					}
+					
+					if(stepSize == 1 && fill) {
+						paintTileSubdivided(tile, tileLastStepSize);
+					} else {
+						paintTile(tile, stepSize, tileLastStepSize);
+					}
+				}
 				
-				int maxR = Math.max(Math.max(-x0 + 1, x1), Math.max(-y0 + 1, y1));
-		
-				// We update all pixels because some values might depend on statistical values
-				int chunkIndex = index;
+				lastStepSize = stepSize;
 				
-				for(int rad = 0; rad <= maxR; rad ++) {
-					chunkIndex = paintCirc(rad, x0, y0, x1, y1, stepSize, chunkCache, chunkIndex);
-					chunkIndex = (chunkIndex + 1) % THREAD_COUNT;
+				// Lock until all threads have passed here, then update statistics
+				nextStepSizeBarrier.await();
+			}
+			
+			if(antiAlias && env instanceof AntiAliasingEnvironment) {
+				// All points are known and the statistics are final.
+				for(int tile = scheduler.nextTile(index); tile >= 0; tile = scheduler.nextTile(index)) {
+					paintTileAntiAliased(tile);
 				}
 				
-				// Lock until all threads have passed here, then update statistics
 				nextStepSizeBarrier.await();
 			}
 			
-			Log.d(TAG, "Thread " + index + ", Count = " + pointCount);
+			Log.d(TAG, "Thread " + index + ", Count = " + pointCount + ", Tiles = " + tileCount);
 		}
 		
 		void paintFast() throws CancelException, InterruptedException, BrokenBarrierException {
-			int chunkHeight = 16; // predefined, but sizeOf(int) * 16 is 64
-			// Hence might be a good value to avoid false sharing.
-			int[] localBitmapData = new int[cache.width * chunkHeight];
-			
-			for(int y0 = chunkHeight * index; y0 < cache.height; y0 += chunkHeight * THREAD_COUNT) {
-				for(int y = 0; y < chunkHeight && y + y0 < cache.height; ++y) {
-					for(int x = 0; x < cache.width; ++x) {
-						localBitmapData[y * cache.width + x] = retpix(x, y + y0);
-					}
-				}
-				
-				synchronized(cache.bitmap) {
-					cache.bitmap.setPixels(localBitmapData, 0, cache.width, 0, y0, cache.width, chunkHeight);
-				}
+			// Only one pass without preview.
+			for(int tile = scheduler.nextTile(index); tile >= 0; tile = scheduler.nextTile(index)) {
+				paintTile(tile, 1, 0);
 			}
+
 			// Wait until all threads are finished
 			nextStepSizeBarrier.await();
 		}
 		
 		public void run() {
-			// Use lower thread priority to have less impact on our runtime
-			Process.setThreadPriority(THREAD_PRIORITY);
-
 			try {
 				paintFull();
 				//paintFast();
 			} catch(CancelException e) {
 				// Someone told us to stop
 				Log.d(TAG, "Cancelled " + index);
+			} catch(CancellationException e) {
+				// An environment noticed the interrupt of cancel, eg while it calculated a reference orbit
+				Log.d(TAG, "Cancelled " + index + ": " + e.getMessage());
+				nextStepSizeBarrier.reset();
 			} catch(InterruptedException e) {
 				// Someone told us to wake up. No problem, we are done anyways...
 				Log.d(TAG, "Thread " + index + " was interrupted");
@@ -365,6 +529,8 @@ public class RasterTask implements AbstractImgCache.Task {
 				Log.d(TAG, "Barrier is broken for Thread " + index);
 			} catch(Throwable th) {
 				Log.e(TAG, th.getMessage());
+				// Do not let the other workers wait for us forever.
+				nextStepSizeBarrier.reset();
 			} finally {
 				if(index == 0) {
 					running = false;
@@ -386,11 +552,49 @@ public class RasterTask implements AbstractImgCache.Task {
 		int color(int x, int y);
 	}
 	
+	/** Environments whose points can be copied into other points 
+	 * without calculating them, used by subdivision.
+	 */
+	public static interface FillableEnvironment extends Environment {
+		/** Calculates the point if it is not known yet.
+		 * @param x
+		 * @param y
+		 * @return A value that is equal for points that may be filled by each other
+		 */
+		int key(int x, int y);
+		
+		/** Sets the point x, y to the value of srcX, srcY if it is not known yet.
+		 * @param x
+		 * @param y
+		 * @param srcX
+		 * @param srcY
+		 */
+		void fill(int x, int y, int srcX, int srcY);
+	}
+	
+	/** Environments that can add samples to pixels whose neighbours
+	 * are very different, used by the anti-aliasing pass.
+	 */
+	public static interface AntiAliasingEnvironment extends Environment {
+		/** Called after all points are known. 
+		 * @param x
+		 * @param y
+		 * @return The color of the point, averaged with additional samples
+		 * inside of the pixel if it is at an edge.
+		 */
+		int antiAliasedColor(int x, int y);
+	}
+	
 	public static interface Rasterable {
 		Environment createEnvironment();
 		
 		void initStatistics();
-		void updateStatisticsFromEnv(Environment env);
+		
+		/** Merges the statistics of env into the global ones.
+		 * @param env
+		 * @return true if the global statistics changed.
+		 */
+		boolean updateStatisticsFromEnv(Environment env);
 		
 		/** If it uses statistics, we should not skip the first pixel
 		 * @return
@@ -398,6 +602,24 @@ public class RasterTask implements AbstractImgCache.Task {
 		boolean usesStats();
 	}
 	
+	/** Rasterables that keep provisional data of an earlier image (e.g. after
+	 * a zoom). It is drawn before the first pass, and in tiles that it covers
+	 * passes that are coarser than the preview are skipped.
+	 */
+	public static interface Previewable extends Rasterable {
+		/**
+		 * @return The step size of a pass that is about as detailed as 
+		 * the preview or 0 if there is no preview.
+		 */
+		int previewStepSize();
+		
+		/** Draws the preview of the pixels start..end - 1 into pixels 
+		 * (the indices are the same as in the image).
+		 * @return false if some pixels have no preview, these are not modified.
+		 */
+		boolean previewColors(int[] pixels, int start, int end);
+	}
+	
 	/** This exception is thrown if during calculation cancel is called.
 	 *
 	 */
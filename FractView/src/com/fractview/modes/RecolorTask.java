@@ -0,0 +1,221 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.fractview.tools.Log;
+
+/**
+ * Colors an image whose points are all known, e.g. after the palette or the 
+ * transfer was changed. Unlike RasterTask there are no passes: The workers 
+ * first collect the statistics of bands of full rows, then they color them. 
+ */
+public class RecolorTask implements AbstractImgCache.Task {
+	
+	private static final String TAG = "RecolorTask";
+	
+	// Number of rows that are colored and published at once.
+	public static final int BAND_HEIGHT = 16;
+	
+	private Recolorable recolorable;
+	
+	private volatile boolean cancelled;
+	private volatile boolean running;
+	
+	private long startTime;
+	
+	private int threadCount;
+	
+	private AbstractImgCache cache;
+	
+	private int width;
+	private int height;
+	
+	// Colors of the image. A band is dirty if it was colored but not published yet.
+	private int[] pixels;
+	private AtomicIntegerArray dirty;
+	
+	// Bands are handed out twice, first for statistics, then for colors.
+	private AtomicInteger nextStatisticsBand;
+	private AtomicInteger nextBand;
+	
+	// The last worker that terminates clears running.
+	private AtomicInteger activeWorkers;
+	
+	// Workers start coloring once all of them collected their statistics.
+	private CountDownLatch statisticsCollected;
+	
+	private ExecutorService executorService;
+	
+	public RecolorTask(Recolorable recolorable) {
+		this(recolorable, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public RecolorTask(Recolorable recolorable, int threadCount) {
+		this.recolorable = recolorable;
+		this.threadCount = threadCount;
+		
+		executorService = RasterTask.newExecutorService(threadCount, TAG);
+	}
+	
+	public void start(AbstractImgCache cache) {
+		Log.d(TAG, "starting task with " + threadCount + " threads...");
+		
+		this.cache = cache;
+		this.width = cache.width;
+		this.height = cache.height;
+		
+		this.pixels = new int[width * height];
+		this.dirty = new AtomicIntegerArray(bandCount());
+		this.nextStatisticsBand = new AtomicInteger();
+		this.nextBand = new AtomicInteger();
+		this.activeWorkers = new AtomicInteger(threadCount);
+		
+		this.statisticsCollected = new CountDownLatch(threadCount);
+		
+		recolorable.clearStatistics();
+		
+		startTime = System.currentTimeMillis();
+		
+		running = true;
+		
+		for(int i = 0; i < threadCount; i++) {
+			executorService.submit(new Worker(i));
+		}
+		
+		// Threads terminate after the workers, so that join returns.
+		executorService.shutdown();
+	}
+	
+	private int bandCount() {
+		return (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+	}
+	
+	@Override
+	public double getRunTime() {
+		return ((double) (System.currentTimeMillis() - startTime)) / 1000.;
+	}
+	
+	/** Copies all bands that were colored since the last call into the sink.
+	 */
+	@Override
+	public synchronized void publish() {
+		if(pixels == null) return;
+		
+		for(int band = 0; band < dirty.length(); band++) {
+			// Clear flag before copying so that new modifications are not lost.
+			if(dirty.getAndSet(band, 0) != 0) {
+				int y0 = band * BAND_HEIGHT;
+				int y1 = Math.min(y0 + BAND_HEIGHT, height);
+				
+				cache.sink.setPixels(pixels, y0 * width, width, 0, y0, width, y1 - y0);
+			}
+		}
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	public void cancel() {
+		Log.d(TAG, "canceling tasks");
+		this.cancelled = true;
+		
+		executorService.shutdownNow();
+	}
+	
+	@Override
+	public void join() throws InterruptedException {
+		executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+	}
+	
+	private int start(int band) {
+		return band * BAND_HEIGHT * width;
+	}
+	
+	private int end(int band) {
+		return Math.min((band + 1) * BAND_HEIGHT, height) * width;
+	}
+	
+	private class Worker implements Runnable {
+		private int index;
+		
+		Worker(int index) {
+			this.index = index;
+		}
+		
+		public void run() {
+			try {
+				try {
+					for(int band = nextStatisticsBand.getAndIncrement(); band < dirty.length() && !cancelled; band = nextStatisticsBand.getAndIncrement()) {
+						recolorable.collectStatistics(start(band), end(band));
+					}
+				} finally {
+					statisticsCollected.countDown();
+				}
+				
+				statisticsCollected.await();
+				
+				for(int band = nextBand.getAndIncrement(); band < dirty.length() && !cancelled; band = nextBand.getAndIncrement()) {
+					recolorable.colors(pixels, start(band), end(band));
+					
+					dirty.set(band, 1); // Volatile write, publishes the pixels.
+				}
+			} catch(InterruptedException e) {
+				Log.d(TAG, "Thread " + index + " was interrupted");
+			} catch(Throwable th) {
+				Log.e(TAG, th.getMessage());
+			} finally {
+				if(activeWorkers.decrementAndGet() == 0) {
+					running = false;
+					Log.d(TAG, "Runtime of task was " + (System.currentTimeMillis() - startTime) + " ms");
+				}
+			}
+		}
+	}
+	
+	public static interface Recolorable {
+		/** Resets the statistics. Called once when the task starts.
+		 */
+		void clearStatistics();
+		
+		/** Adds the points start to end - 1 to the statistics. Called by several 
+		 * threads at once for disjoint ranges, all before the first call of colors.
+		 * @param start
+		 * @param end
+		 */
+		void collectStatistics(int start, int end);
+		
+		/** Writes the colors of the points start to end - 1 (the index of x, y is 
+		 * x + y * width) into pixels at the same indices. Called by several threads 
+		 * at once for disjoint ranges. 
+		 * @param pixels
+		 * @param start
+		 * @param end
+		 */
+		void colors(int[] pixels, int start, int end);
+	}
+}
@@ -4,8 +4,8 @@ import com.fractview.math.Affine;
 
 public abstract class ScaleableCache extends AbstractImgCache {
 	
-	protected ScaleableCache(ScaleablePrefs prefs, int width, int height) {
-		super(prefs, width, height);
+	protected ScaleableCache(ScaleablePrefs prefs, PixelSink sink) {
+		super(prefs, sink);
 	}
 	
 	public ScaleablePrefs prefs() {
@@ -21,14 +21,15 @@ public abstract class ScaleableCache extends AbstractImgCache {
 		double d = m[4];
 		double f = m[5];
 		
+		Affine relative = Affine.create(a, b, e, c, d, f);
 		Affine affine = Affine.create(a, b, e, c, d, f);
 		
 		ScaleablePrefs p = prefs();
 		affine.preConcat(p.affine());
 		setPrefs(p.newAffineInstance(affine));
 
-		// And update preferences
-		clear();	
+		// Instead of clearing everything the old data is resampled.
+		scaleData(relative, p);
 	}
 	
 	public void move(int dx, int dy) {
@@ -45,4 +46,11 @@ public abstract class ScaleableCache extends AbstractImgCache {
 	}
 	
 	protected abstract void moveData(int dx, int dy);
+	
+	/** Called after the image was scaled or rotated. Implementations must
+	 * clear the data, but they may keep it as a preview of the new image.
+	 * @param relative Maps normalized coordinates of the new image to those of the old one
+	 * @param oldPrefs Preferences of the data before the transformation
+	 */
+	protected abstract void scaleData(Affine relative, ScaleablePrefs oldPrefs);
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Splits an image into square tiles. Tiles are aligned to the center of the image 
+ * (like the grid of the progressive passes in RasterTask) and they are sorted by 
+ * their distance to the center so that the image grows from the center outwards.
+ */
+public class TileGrid {
+	
+	private int width;
+	private int height;
+	private int tileSize;
+	
+	// Top left corner of each tile in center-outward order. These are not clipped,
+	// hence tiles at the border might reach over the image bounds.
+	private int[] xs;
+	private int[] ys;
+	
+	public TileGrid(int width, int height, int centerX, int centerY, int tileSize) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		
+		// Tile indices relative to the center tile
+		int tx0 = -((centerX + tileSize - 1) / tileSize); // incl
+		int ty0 = -((centerY + tileSize - 1) / tileSize); // incl
+		int tx1 = (width - centerX + tileSize - 1) / tileSize; // excl
+		int ty1 = (height - centerY + tileSize - 1) / tileSize; // excl
+		
+		int columns = tx1 - tx0;
+		int count = columns * (ty1 - ty0);
+		
+		// Center of tile (tx, ty) is at (2 tx + 1, 2 ty + 1) in units of half tiles.
+		final int[] ring = new int[count];
+		final int[] dist = new int[count];
+		
+		Integer[] order = new Integer[count];
+		
+		for(int i = 0; i < count; i++) {
+			int dx = 2 * (tx0 + i % columns) + 1;
+			int dy = 2 * (ty0 + i / columns) + 1;
+			
+			ring[i] = Math.max(Math.abs(dx), Math.abs(dy));
+			dist[i] = dx * dx + dy * dy;
+			order[i] = i;
+		}
+		
+		// Rings first (like the old ring painter), inside a ring the closer tile wins.
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				if(ring[i] != ring[j]) return ring[i] < ring[j] ? -1 : 1;
+				if(dist[i] != dist[j]) return dist[i] < dist[j] ? -1 : 1;
+				return i.compareTo(j);
+			}
+		});
+		
+		this.xs = new int[count];
+		this.ys = new int[count];
+		
+		for(int i = 0; i < count; i++) {
+			xs[i] = centerX + (tx0 + order[i] % columns) * tileSize;
+			ys[i] = centerY + (ty0 + order[i] / columns) * tileSize;
+		}
+	}
+	
+	public int count() {
+		return xs.length;
+	}
+	
+	public int tileSize() {
+		return tileSize;
+	}
+	
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+	
+	/**
+	 * @param tile
+	 * @return left border of the tile, might be negative
+	 */
+	public int x(int tile) {
+		return xs[tile];
+	}
+	
+	/**
+	 * @param tile
+	 * @return top border of the tile, might be negative
+	 */
+	public int y(int tile) {
+		return ys[tile];
+	}
+}
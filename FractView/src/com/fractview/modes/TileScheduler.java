@@ -0,0 +1,38 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+/**
+ * Hands out tiles of a TileGrid to the workers of a RasterTask. Implementations 
+ * must be thread safe, nextTile is called concurrently by all workers.
+ */
+public interface TileScheduler {
+	/**
+	 * Starts a new pass over all tiles. This is only called when no 
+	 * worker is inside nextTile (ie before the workers are started
+	 * or inside the barrier action between two passes).
+	 * @param tileCount Number of tiles. Tiles should be handed out roughly
+	 * in ascending order since tile 0 is the center one.
+	 */
+	void start(int tileCount);
+	
+	/**
+	 * @param worker Index of the calling worker
+	 * @return the next tile to be drawn or -1 if all tiles of this pass are taken.
+	 */
+	int nextTile(int worker);
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Each worker owns the tiles worker, worker + n, worker + 2n, ... 
+ * (n being the number of workers) so that all of them start close to 
+ * the center. Once a worker runs out of tiles it steals the next tile 
+ * of the other workers. Taking a tile is a single getAndIncrement on 
+ * the cursor of a queue, hence there are no locks. Thieves also take 
+ * from the front, otherwise the center-outward order would be lost.
+ */
+public class WorkStealingScheduler implements TileScheduler {
+
+	// Cursors are padded so that they do not share a cache line.
+	private static final int PADDING = 16;
+	
+	private int workerCount;
+	private int tileCount;
+	
+	private AtomicIntegerArray cursors;
+	
+	public WorkStealingScheduler(int workerCount) {
+		this.workerCount = workerCount;
+		this.cursors = new AtomicIntegerArray(workerCount * PADDING);
+	}
+	
+	@Override
+	public void start(int tileCount) {
+		this.tileCount = tileCount;
+		
+		for(int i = 0; i < workerCount; i++) {
+			cursors.set(i * PADDING, 0);
+		}
+	}
+
+	@Override
+	public int nextTile(int worker) {
+		// First own queue, then steal from the others.
+		for(int i = 0; i < workerCount; i++) {
+			int queue = (worker + i) % workerCount;
+			int tile = take(queue);
+			
+			if(tile >= 0) return tile;
+		}
+		
+		return -1;
+	}
+	
+	private int take(int queue) {
+		// Check first so that an empty queue does not grow its cursor forever.
+		if(queue + cursors.get(queue * PADDING) * workerCount >= tileCount) return -1;
+		
+		int tile = queue + cursors.getAndIncrement(queue * PADDING) * workerCount;
+		
+		return tile < tileCount ? tile : -1;
+	}
+}
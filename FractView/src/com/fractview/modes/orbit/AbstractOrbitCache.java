@@ -1,12 +1,17 @@
 package com.fractview.modes.orbit;
 
+import com.fractview.modes.AbstractImgCache;
+import com.fractview.modes.PixelSink;
 import com.fractview.modes.RasterTask;
 import com.fractview.modes.ScaleableCache;
 
 public abstract class AbstractOrbitCache extends ScaleableCache implements RasterTask.Rasterable {
 
-	protected AbstractOrbitCache(AbstractOrbitPrefs prefs, int width, int height) {
-		super(prefs, width, height);
+	private boolean subdivide = false;
+	private boolean antiAlias = false;
+
+	protected AbstractOrbitCache(AbstractOrbitPrefs prefs, PixelSink sink) {
+		super(prefs, sink);
 	}
 	
 	public void setMaxIter(int maxIter) {
@@ -24,9 +29,35 @@ public abstract class AbstractOrbitCache extends ScaleableCache implements Raste
 	 */
 	protected abstract void updateMaxIter(int oldMaxIter, int newMaxIter);
 	
+	/** Enables rendering by subdivision (see RasterTask.setSubdivide) for
+	 * the next tasks.
+	 * @param subdivide
+	 */
+	public void setSubdivide(boolean subdivide) {
+		this.subdivide = subdivide;
+	}
+	
+	public boolean subdivide() {
+		return subdivide;
+	}
+	
+	/** Enables the anti-aliasing pass (see RasterTask.setAntiAlias) for
+	 * the next tasks.
+	 * @param antiAlias
+	 */
+	public void setAntiAlias(boolean antiAlias) {
+		this.antiAlias = antiAlias;
+	}
+	
+	public boolean antiAlias() {
+		return antiAlias;
+	}
+	
 	@Override
-	public RasterTask calculateInBackground() {
+	public AbstractImgCache.Task calculateInBackground() {
 		RasterTask task = new RasterTask(this);
+		task.setSubdivide(subdivide);
+		task.setAntiAlias(antiAlias);
 		task.start(this);
 		
 		return task;
@@ -18,7 +18,9 @@ package com.fractview.modes.orbit;
 
 import com.fractview.math.Affine;
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
 import com.fractview.modes.ScaleablePrefs;
+import com.fractview.modes.orbit.colorization.OrbitToFloat;
 
 public abstract class AbstractOrbitPrefs extends ScaleablePrefs {
 
@@ -50,24 +52,138 @@ public abstract class AbstractOrbitPrefs extends ScaleablePrefs {
 
 		protected int length;
 		protected Cplx c;
-		protected Cplx[] orbit;
+		protected CplxArray orbit;
+		
+		// Colorization methods that accumulate values over the orbit 
+		// and their current sums.
+		private OrbitToFloat[] methods;
+		private double[] sums;
+		
+		// Number of points that are kept or FULL_ORBIT.
+		private int history;
 		
 		public AbstractOrbit() {
+			this(OrbitToFloat.FULL_ORBIT, new OrbitToFloat[0]);
+		}
+		
+		/**
+		 * @param history Number of most recent points that are kept or 
+		 * OrbitToFloat.FULL_ORBIT if all points are needed.
+		 * @param methods Methods whose sums are collected in accumulate.
+		 */
+		protected AbstractOrbit(int history, OrbitToFloat[] methods) {
 			this.length = 0;
-			this.orbit = new Cplx[maxIter];
+			this.history = history;
 			
-			for(int i = 0; i < AbstractOrbitPrefs.this.maxIter; i++) {
-				orbit[i] = new Cplx();
+			if(history == OrbitToFloat.FULL_ORBIT) {
+				// Grows with the longest orbit so far, hence short orbits
+				// do not allocate maxIter elements.
+				this.orbit = new CplxArray(maxIter);
+			} else {
+				this.orbit = CplxArray.ring(history);
 			}
 			
+			this.methods = methods;
+			this.sums = new double[methods.length];
+			
 			this.c = new Cplx();
 		}
 		
+		/**
+		 * Sets the sums of all methods to 0.
+		 */
+		protected void clearSums() {
+			for(int k = 0; k < sums.length; k++) {
+				sums[k] = 0;
+			}
+		}
+		
+		/**
+		 * Adds point i to the sums of all methods
+		 * @param i
+		 */
+		protected void accumulate(int i) {
+			for(int k = 0; k < methods.length; k++) {
+				sums[k] = methods[k].accumulate(sums[k], this, i);
+			}
+		}
+		
+		/**
+		 * @param method
+		 * @return The current sum of method
+		 */
+		public double sum(OrbitToFloat method) {
+			for(int k = 0; k < methods.length; k++) {
+				if(methods[k] == method) return sums[k];
+			}
+			
+			throw new IllegalArgumentException(method + " does not accumulate in this orbit");
+		}
+		
+		/**
+		 * @return Number of doubles that are written by save or 0 if
+		 * this orbit keeps all points and thus cannot be saved.
+		 */
+		public int stateSize() {
+			return history == OrbitToFloat.FULL_ORBIT ? 0 : 1 + 2 * history + sums.length;
+		}
+		
+		/**
+		 * Writes the length, the most recent points and the sums of the orbit 
+		 * into dst so that it can be continued later using restore.
+		 * @param dst
+		 * @param offset
+		 * @return The offset after the saved state
+		 */
+		public int save(double[] dst, int offset) {
+			dst[offset++] = length;
+			
+			for(int i = length - history; i < length; i++) {
+				dst[offset++] = i >= 0 ? orbit.re(i) : 0;
+				dst[offset++] = i >= 0 ? orbit.im(i) : 0;
+			}
+			
+			for(int k = 0; k < sums.length; k++) {
+				dst[offset++] = sums[k];
+			}
+			
+			return offset;
+		}
+		
+		/**
+		 * Reads a state that was written by save. c must be set already.
+		 * @param src
+		 * @param offset
+		 * @return The offset after the restored state
+		 */
+		protected int restore(double[] src, int offset) {
+			length = (int) src[offset++];
+			
+			for(int i = length - history; i < length; i++) {
+				if(i >= 0) orbit.set(i, src[offset], src[offset + 1]);
+				offset += 2;
+			}
+			
+			for(int k = 0; k < sums.length; k++) {
+				sums[k] = src[offset++];
+			}
+			
+			return offset;
+		}
+		
 		public AbstractOrbitPrefs factory() {
 			return AbstractOrbitPrefs.this;
 		}
 
 		public void generate(int x, int y, int w, int h) {
+			generate((float) x, (float) y, w, h);
+		}
+		
+		/**
+		 * Generates the orbit of a point between pixels (used for additional
+		 * samples of a pixel). Pixel x, y is at the integer coordinates.
+		 */
+		public void generate(float x, float y, int w, int h) {
 			map(x, y, w, h, c);
 			generate();
 		}
@@ -78,11 +194,29 @@ public abstract class AbstractOrbitPrefs extends ScaleablePrefs {
 		protected abstract void generate();
 		
 		/**
+		 * If the orbit only keeps its most recent points, only these
+		 * can be accessed.
 		 * @param i
-		 * @return The ith point of the orbit
+		 * @return A new instance containing the ith point of the orbit
 		 */
 		public Cplx get(int i) {
-			return orbit[i];
+			return orbit.get(i, new Cplx());
+		}
+		
+		public double re(int i) {
+			return orbit.re(i);
+		}
+		
+		public double im(int i) {
+			return orbit.im(i);
+		}
+		
+		public double abs(int i) {
+			return orbit.abs(i);
+		}
+		
+		public double arg(int i) {
+			return orbit.arg(i);
 		}
 
 		public int length() {
@@ -94,11 +228,11 @@ public abstract class AbstractOrbitPrefs extends ScaleablePrefs {
 		}
 		
 		public double absSqr(int i) {
-			return orbit[i].absSqr();
+			return orbit.absSqr(i);
 		}
 		
 		public double distSqr(int i) {
-			return orbit[i-1].distSqr(orbit[i]);
+			return orbit.distSqr(i - 1, i);
 		}
 	}
 }
@@ -20,10 +20,14 @@ import java.text.DecimalFormat;
 
 import com.fractview.math.Affine;
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
+import com.fractview.math.DoubleDoubleCplx;
 import com.fractview.math.Spline;
 import com.fractview.math.colors.Palette;
 import com.fractview.modes.AbstractImgCache;
+import com.fractview.modes.PixelSink;
 import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+import com.fractview.modes.orbit.colorization.OrbitToFloat;
 import com.fractview.modes.orbit.colorization.OrbitTransfer;
 import com.fractview.modes.orbit.functions.ExecutableFunction;
 import com.fractview.modes.orbit.functions.Function;
@@ -37,11 +41,25 @@ public class EscapeTime extends AbstractOrbitPrefs {
 	public static final int BAILOUT_TYPE = 0x01000000;
 	public static final int LAKE_TYPE = 0x02000000;
 	
+	// Views that are smaller than this are calculated by perturbation if the 
+	// function permits it. Below about 1e-13 neighbouring pixels cannot be told
+	// apart in double precision.
+	public static final double PERTURBATION_SCALE = 1e-10;
+	
+	// Otherwise images in which pixels are closer than this are calculated in 
+	// double-double precision. Near the usual area of fractals neighbouring pixels
+	// are then only a few hundred ulps of a double apart. Like the scale it does 
+	// not depend on the position so that moving the image does not change it.
+	public static final double DOUBLE_DOUBLE_SPACING = 1e-13;
+	
 	private double bailout;
 	private double epsilon;
 	
+	// Orbits that come closer than this to an earlier point are considered
+	// to be periodic, hence they are lake. 0 disables the detection.
+	private double cycleTolerance;
+	
 	private Function function;
-	private ExecutableFunction internalFunction;
 	
 	private CommonOrbitToFloat bailoutMethod;
 	private CommonOrbitToFloat lakeMethod;
@@ -52,21 +70,32 @@ public class EscapeTime extends AbstractOrbitPrefs {
 	private Palette bailoutPalette;
 	private Palette lakePalette;
 	
+	// Created by the first orbit that needs it.
+	private transient ReferenceOrbit reference;
+	private transient SeriesApproximation series;
+	
+	// Set in bands of posters (see newBandInstance): Perturbed orbits use the reference 
+	// orbit of the poster and the coordinates of its pixels.
+	private transient EscapeTime poster;
+	private transient int posterWidth;
+	private transient int posterHeight;
+	private transient int bandY0;
+	
 	@SuppressWarnings("unused")
 	private EscapeTime() {} // For GSon
 	
 	public EscapeTime(Affine affine, int maxIter, Function function, 
 			double bailout, CommonOrbitToFloat bailoutMethod, OrbitTransfer bailoutTransfer, Palette bailoutPalette,
-			double epsilon, CommonOrbitToFloat lakeMethod, OrbitTransfer lakeTransfer, Palette lakePalette) {
+			double epsilon, double cycleTolerance, CommonOrbitToFloat lakeMethod, OrbitTransfer lakeTransfer, Palette lakePalette) {
 		super(affine, maxIter);
 		
 		this.function = function;
-		this.internalFunction = function.create();
 		this.bailout = bailout;
 		this.epsilon = epsilon;
 
 		this.bailout = bailout;
 		this.epsilon = epsilon;
+		this.cycleTolerance = cycleTolerance;
 		
 		this.bailoutMethod = bailoutMethod;
 		this.lakeMethod = lakeMethod;
@@ -77,6 +106,84 @@ public class EscapeTime extends AbstractOrbitPrefs {
 		this.bailoutPalette = bailoutPalette;
 		this.lakePalette = lakePalette;	}	
 
+	/**
+	 * @return The number of points that orbits must keep so that the function
+	 * and the bailout- and lake-method can be evaluated.
+	 */
+	private int orbitHistory() {
+		int bailoutHistory = bailoutMethod.history();
+		int lakeHistory = lakeMethod.history();
+		
+		if(bailoutHistory == OrbitToFloat.FULL_ORBIT || lakeHistory == OrbitToFloat.FULL_ORBIT) {
+			return OrbitToFloat.FULL_ORBIT;
+		}
+		
+		// The function reads up to initsSize previous points and writes one
+		// more; two points are needed to check epsilon.
+		int history = Math.max(function.initsSize() + 1, 2);
+		
+		return Math.max(history, Math.max(bailoutHistory, lakeHistory));
+	}
+	
+	/**
+	 * @return true if orbits are calculated as differences to a reference orbit
+	 * at the center because the view is too small for double precision.
+	 */
+	public boolean usesPerturbation() {
+		double[] m = affine().get();
+		double scale = Math.sqrt(Math.abs(m[0] * m[4] - m[1] * m[3]));
+		
+		return scale < PERTURBATION_SCALE && ReferenceOrbit.degree(function) > 0;
+	}
+	
+	/**
+	 * @return true if orbits in images of the given size are calculated in 
+	 * double-double precision because neighbouring pixels are too close for 
+	 * double precision and perturbation cannot be used.
+	 */
+	public boolean usesDoubleDouble(int w, int h) {
+		if(usesPerturbation()) {
+			return false;
+		}
+		
+		double[] m = affine().get();
+		double spacing = Math.sqrt(Math.abs(m[0] * m[4] - m[1] * m[3])) / Math.min(w, h);
+		
+		return spacing < DOUBLE_DOUBLE_SPACING;
+	}
+	
+	/**
+	 * The reference orbit is calculated by the first thread that needs it,
+	 * the others wait for it.
+	 */
+	private synchronized ReferenceOrbit reference() {
+		if(reference == null) {
+			reference = new ReferenceOrbit(affine(), ReferenceOrbit.degree(function), maxIter(), bailout);
+		}
+		
+		return reference;
+	}
+	
+	/**
+	 * @return false if the series approximation cannot be used because the 
+	 * colorization needs all points of the orbit.
+	 */
+	private boolean seriesApplies() {
+		return orbitHistory() != OrbitToFloat.FULL_ORBIT && !bailoutMethod.accumulates() && !lakeMethod.accumulates();
+	}
+	
+	/**
+	 * @return The series approximation for images of the given size. Only call
+	 * this if seriesApplies.
+	 */
+	private synchronized SeriesApproximation series(int w, int h) {
+		if(series == null || !series.isFor(w, h)) {
+			series = new SeriesApproximation(reference(), affine().get(), w, h);
+		}
+		
+		return series;
+	}
+	
 	@Override
 	public Orbit createOrbit() {
 		return new Orbit();
@@ -106,6 +213,10 @@ public class EscapeTime extends AbstractOrbitPrefs {
 		return epsilon;
 	}
 
+	public double cycleTolerance() {
+		return cycleTolerance;
+	}
+
 	public CommonOrbitToFloat lakeMethod() {
 		return lakeMethod;
 	}
@@ -128,22 +239,42 @@ public class EscapeTime extends AbstractOrbitPrefs {
 	}*/
 	
 	@Override
-	public AbstractImgCache createImgCache(int width, int height) {
-		return new EscapeTimeCache(this, width, height);
+	public AbstractImgCache createImgCache(PixelSink sink) {
+		return new EscapeTimeCache(this, sink);
 	}
 
 	@Override
 	public EscapeTime newAffineInstance(Affine affine) {
 		return new EscapeTime(affine, this.maxIter(), this.function, 
 				this.bailout, this.bailoutMethod, this.bailoutTransfer, this.bailoutPalette,
-				this.epsilon, this.lakeMethod, this.lakeTransfer, this.lakePalette);
+				this.epsilon, this.cycleTolerance, this.lakeMethod, this.lakeTransfer, this.lakePalette);
+	}
+	
+	/**
+	 * @param affine Maps the pixels of the band to the same points as in the poster.
+	 * @param width Size of the poster
+	 * @param height
+	 * @param y0 First row of the band in the poster
+	 * @return Preferences for a band of rows of a poster with these preferences. At 
+	 * perturbation depth all bands share the reference orbit and series approximation
+	 * of the poster, they are only calculated once.
+	 */
+	EscapeTime newBandInstance(Affine affine, int width, int height, int y0) {
+		EscapeTime band = newAffineInstance(affine);
+		
+		band.poster = this;
+		band.posterWidth = width;
+		band.posterHeight = height;
+		band.bandY0 = y0;
+		
+		return band;
 	}
 	
 	@Override
 	public AbstractOrbitPrefs newMaxIterInstance(int maxIter) {
 		return new EscapeTime(this.affine(), maxIter, this.function, 
 				this.bailout, this.bailoutMethod, this.bailoutTransfer, this.bailoutPalette,
-				this.epsilon, this.lakeMethod, this.lakeTransfer, this.lakePalette);
+				this.epsilon, this.cycleTolerance, this.lakeMethod, this.lakeTransfer, this.lakePalette);
 	}
 	
 	public String toString() {
@@ -158,15 +289,249 @@ public class EscapeTime extends AbstractOrbitPrefs {
 		private int type;
 		float value;
 		
+		// Period of the attracting cycle or 0 if none was found.
+		private int period;
+		
+		// Each orbit has its own compiled function because executables 
+		// keep their registers and orbits are used by different threads.
+		private ExecutableFunction internalFunction = function.create();
+		
+		// Brent's cycle detection: Each point is compared with a saved point. 
+		// The saved point is replaced whenever the number of steps since it was 
+		// saved reaches the next power of two, hence any cycle is found within 
+		// a small multiple of its period after the orbit reached it.
+		private double cycleRe;
+		private double cycleIm;
+		private int power;
+		private int steps;
+		
+		// Perturbation: Point length - 1 of this orbit is point refIndex of the 
+		// reference plus d, and c is the center plus dc. In bands the view is the poster.
+		private final EscapeTime view = poster != null ? poster : EscapeTime.this;
+		private final boolean perturbed = view.usesPerturbation();
+		private final double[] matrix = view.affine().get();
+		private ReferenceOrbit reference;
+		private final boolean seriesApplies = perturbed && seriesApplies();
+		private SeriesApproximation series;
+		private int skip; // Iterations that are skipped by the series approximation
+		private double dcRe;
+		private double dcIm;
+		private double dRe;
+		private double dIm;
+		private int refIndex;
+		private final double[] next = new double[2];
+		
+		// Double-double precision: lows contains the remainders of the points in
+		// orbit and ddC is c. Whether it is used depends on the image size.
+		private boolean doubleDouble;
+		private int width;
+		private int height;
+		private CplxArray lows;
+		private final DoubleDoubleCplx ddC = new DoubleDoubleCplx();
+		
+		public Orbit() {
+			super(orbitHistory(), 
+					bailoutMethod == lakeMethod ? 
+					new OrbitToFloat[]{ bailoutMethod } : 
+					new OrbitToFloat[]{ bailoutMethod, lakeMethod });
+		}
+		
+		@Override
+		public void generate(float x, float y, int w, int h) {
+			if(!perturbed) {
+				if(doubleDouble(w, h)) {
+					mapDoubleDouble(x, y, w, h);
+					generate();
+				} else {
+					super.generate(x, y, w, h);
+				}
+				
+				return;
+			}
+			
+			if(poster != null) {
+				// Pixel of the poster
+				y += bandY0;
+				w = posterWidth;
+				h = posterHeight;
+			}
+			
+			if(reference == null) reference = view.reference();
+			if(seriesApplies && (series == null || !series.isFor(w, h))) series = view.series(w, h);
+			
+			// The center of the view is the pixel w / 2, h / 2 (see normX).
+			int size = Math.min(w, h);
+			double nx = (x - w / 2.) / size;
+			double ny = (y - h / 2.) / size;
+			
+			dcRe = matrix[0] * nx + matrix[1] * ny;
+			dcIm = matrix[3] * nx + matrix[4] * ny;
+			
+			// Only used by colorizations, hence double precision is enough.
+			c.set(reference.cRe() + dcRe, reference.cIm() + dcIm);
+			
+			if(series != null && series.skip() > 0) {
+				series.delta(dcRe, dcIm, next);
+				
+				dRe = next[0];
+				dIm = next[1];
+				refIndex = skip = series.skip();
+			} else {
+				dRe = dIm = 0;
+				refIndex = skip = 0;
+			}
+			
+			generate();
+		}
+		
+		/**
+		 * Updates doubleDouble for images of the given size.
+		 */
+		private boolean doubleDouble(int w, int h) {
+			if(w != width || h != height) {
+				width = w;
+				height = h;
+				doubleDouble = usesDoubleDouble(w, h);
+				
+				if(doubleDouble && lows == null) {
+					int history = orbitHistory();
+					lows = history == OrbitToFloat.FULL_ORBIT ? new CplxArray(maxIter()) : CplxArray.ring(history);
+				}
+			}
+			
+			return doubleDouble;
+		}
+		
+		/**
+		 * Sets ddC and c to the point at pixel x, y.
+		 */
+		private void mapDoubleDouble(float x, float y, int w, int h) {
+			// Like normX and normY but in double precision
+			int size = Math.min(w, h);
+			
+			affine().map((x + (size - w) / 2.) / size, (y + (size - h) / 2.) / size, ddC);
+			ddC.get(c);
+		}
+		
 		protected void generate() {
 			type = LAKE_TYPE;
+			period = 0;
 			
-			for(length = internalFunction.init(orbit, c); length < maxIter(); length++) {
-				internalFunction.step(orbit, length - 1, c); // the parameter is the last calculated value
-
-				Cplx z = orbit[length];
+			clearSums();
+			
+			if(skip > 0) {
+				// Continue after point skip. Colorizations do not need the points 
+				// before it, hence they are not accumulated. Only perturbed orbits 
+				// skip points, their function is initialized by z(0) = 0.
+				orbit.ensureIndex(skip);
+				orbit.set(0, 0, 0);
+				orbit.set(skip, reference.re(skip) + dRe, reference.im(skip) + dIm);
+				length = skip + 1;
+			} else {
+				length = doubleDouble ? internalFunction.init(orbit, lows, ddC) : internalFunction.init(orbit, c);
 				
-				double bailoutValue = z.absSqr();
+				for(int i = 1; i < length; i++) {
+					accumulate(i);
+				}
+			}
+			
+			cycleRe = orbit.re(length - 1);
+			cycleIm = orbit.im(length - 1);
+			power = 1;
+			steps = 0;
+			
+			iterate();
+		}
+		
+		/**
+		 * Continues an orbit that was written by save after it reached maxIter 
+		 * of the preferences that created it. Apart from maxIter the preferences
+		 * must be the same.
+		 */
+		public void resume(int x, int y, int w, int h, double[] src, int offset) {
+			if(doubleDouble(w, h)) {
+				mapDoubleDouble(x, y, w, h);
+			} else {
+				map(x, y, w, h, c);
+			}
+			
+			type = LAKE_TYPE;
+			period = 0;
+			
+			offset = restore(src, offset);
+			
+			cycleRe = src[offset++];
+			cycleIm = src[offset++];
+			power = (int) src[offset++];
+			steps = (int) src[offset++];
+			
+			if(doubleDouble) {
+				for(int i = length - orbitHistory(); i < length; i++) {
+					if(i >= 0) lows.set(i, src[offset], src[offset + 1]);
+					offset += 2;
+				}
+			}
+			
+			iterate();
+		}
+		
+		@Override
+		public int stateSize() {
+			// The perturbation is not saved.
+			if(perturbed) return 0;
+			
+			int size = super.stateSize();
+			return size == 0 ? 0 : size + 4;
+		}
+		
+		/**
+		 * @return The state size of orbits in images of the given size. In 
+		 * double-double precision the remainders of the points are saved too.
+		 */
+		public int stateSize(int w, int h) {
+			int size = stateSize();
+			return size > 0 && doubleDouble(w, h) ? size + 2 * orbitHistory() : size;
+		}
+		
+		@Override
+		public int save(double[] dst, int offset) {
+			offset = super.save(dst, offset);
+			
+			dst[offset++] = cycleRe;
+			dst[offset++] = cycleIm;
+			dst[offset++] = power;
+			dst[offset++] = steps;
+			
+			if(doubleDouble) {
+				for(int i = length - orbitHistory(); i < length; i++) {
+					dst[offset++] = i >= 0 ? lows.re(i) : 0;
+					dst[offset++] = i >= 0 ? lows.im(i) : 0;
+				}
+			}
+			
+			return offset;
+		}
+		
+		/**
+		 * @return true if the orbit was stopped by maxIter, only then 
+		 * it can be resumed with a higher maxIter.
+		 */
+		public boolean reachedMaxIter() {
+			return type == LAKE_TYPE && length == maxIter();
+		}
+		
+		private void iterate() {
+			// Local copies, they are only written back if the orbit reaches maxIter.
+			double cycleRe = this.cycleRe;
+			double cycleIm = this.cycleIm;
+			int power = this.power;
+			int steps = this.steps;
+			
+			for(; length < maxIter(); length++) {
+				orbit.ensureIndex(length);
+				step();
+
+				double bailoutValue = orbit.absSqr(length);
 
 				if(bailoutValue >= bailout * bailout) {
 					type = BAILOUT_TYPE; // repelling point
@@ -175,20 +540,89 @@ public class EscapeTime extends AbstractOrbitPrefs {
 				}
 
 				if(length >= 1) {
-					double epsilonValue = z.distSqr(orbit[length - 1]);
+					double epsilonValue = orbit.distSqr(length, length - 1);
 						
 					if(epsilonValue < epsilon * epsilon) {
 						// constant point, use lake-parameters.
+						period = 1;
+						value = lakeMethod.value(this);
+						return;
+					}
+				}
+				
+				if(cycleTolerance > 0) {
+					steps++;
+					
+					double dr = orbit.re(length) - cycleRe;
+					double di = orbit.im(length) - cycleIm;
+					
+					if(dr * dr + di * di < cycleTolerance * cycleTolerance) {
+						// attracting cycle, use lake-parameters.
+						period = steps;
 						value = lakeMethod.value(this);
 						return;
 					}
-				}				
+					
+					if(steps == power) {
+						cycleRe = orbit.re(length);
+						cycleIm = orbit.im(length);
+						power <<= 1;
+						steps = 0;
+					}
+				}
+				
+				accumulate(length);
 			}
+			
+			this.cycleRe = cycleRe;
+			this.cycleIm = cycleIm;
+			this.power = power;
+			this.steps = steps;
 
 			// Set value of lake.
 			value = lakeMethod.value(this);
 		}
 		
+		/**
+		 * Calculates point length from point length - 1.
+		 */
+		private void step() {
+			if(doubleDouble) {
+				lows.ensureIndex(length);
+				internalFunction.step(orbit, lows, length - 1, ddC);
+				return;
+			}
+			
+			if(!perturbed) {
+				internalFunction.step(orbit, length - 1, c); // the parameter is the last calculated value
+				return;
+			}
+			
+			reference.perturb(refIndex, dRe, dIm, dcRe, dcIm, next);
+			
+			double dr = next[0];
+			double di = next[1];
+			
+			refIndex++;
+			
+			double zr = reference.re(refIndex) + dr;
+			double zi = reference.im(refIndex) + di;
+			
+			orbit.set(length, zr, zi);
+			
+			if(zr * zr + zi * zi < dr * dr + di * di || refIndex == reference.length() - 1) {
+				// The point is closer to 0 than to the reference (then d loses its 
+				// precision and glitches occur) or the reference ended. Continue with
+				// the start of the reference, its point 0 is 0.
+				dRe = zr;
+				dIm = zi;
+				refIndex = 0;
+			} else {
+				dRe = dr;
+				dIm = di;
+			}
+		}
+		
 		// These two values will be cached.
 		public float value() {
 			return value;
@@ -197,15 +631,23 @@ public class EscapeTime extends AbstractOrbitPrefs {
 		public int type() {
 			return type;
 		}
+		
+		/**
+		 * @return The period of the cycle that was detected in a lake orbit,
+		 * 1 for fixed points (epsilon) and 0 if there was no cycle detected.
+		 */
+		public int period() {
+			return period;
+		}
 
 		// TODO: move the next method somewhere else...
 		// TODO: Find some better solution for out-of-bounds
 		public float smooth() {
 			// Linear interpolation, smoothened by logarithm if possible
 			double y = bailout();
-			double y0 = length() > 0 ? get(length() - 1).abs() : 0;
+			double y0 = length() > 0 ? abs(length() - 1) : 0;
 			// If this is not bailout then this is the work-around.
-			double y1 = length() == maxIter() ? y0 : get(length()).abs();
+			double y1 = length() == maxIter() ? y0 : abs(length());
 			
 			for(int i = 0; i < 2 && y0 > 1 && y > 1 && y1 > 1; i++) {
 				// Double transfer if all values permit it
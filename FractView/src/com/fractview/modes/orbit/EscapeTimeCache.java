@@ -2,29 +2,56 @@ package com.fractview.modes.orbit;
 
 import java.util.Arrays;
 
+import com.fractview.math.Affine;
+import com.fractview.math.Cplx;
 import com.fractview.math.colors.Palette;
+import com.fractview.modes.AbstractImgCache;
+import com.fractview.modes.PixelSink;
+import com.fractview.modes.Preferences;
 import com.fractview.modes.RasterTask;
+import com.fractview.modes.RecolorTask;
 import com.fractview.modes.RasterTask.Environment;
+import com.fractview.modes.ScaleablePrefs;
 import com.fractview.modes.orbit.EscapeTime.Orbit;
 import com.fractview.modes.orbit.colorization.CommonOrbitToFloat;
+import com.fractview.modes.orbit.colorization.CommonTransfer;
+import com.fractview.modes.orbit.colorization.Histogram;
 import com.fractview.modes.orbit.colorization.OrbitTransfer;
 import com.fractview.modes.orbit.functions.Function;
 
-public class EscapeTimeCache extends AbstractOrbitCache {
+public class EscapeTimeCache extends AbstractOrbitCache implements RecolorTask.Recolorable, RasterTask.Previewable {
+	
+	// Pixels are sampled more often if a color channel of a neighbour differs by more than this.
+	private static final int EDGE_THRESHOLD = 16;
 	
 	// private static final String TAG = "ESC";
-	private OrbitTransfer.Stats[] stats;
+	// Global statistics, null for transfers with custom stats.
+	private OrbitTransfer.SharedStats[] stats;
 	
 	private int[] typeLength; // Bits 0..23 = nrIterations; rest = type.
 	private float[] values;
 	
+	// Saved orbits of lake points for a higher maxIter, null if the cache is not resumable.
+	private OrbitStore store;
+	
+	// Additional samples of pixels at edges, null if there was no anti-aliasing pass.
+	private SampleStore samples;
+	
+	// Data of the last image resampled after a zoom or rotation. It has its own 
+	// statistics and it is only valid as long as the preferences are previewPrefs.
+	private int[] previewTypeLength;
+	private float[] previewValues;
+	private OrbitTransfer.Stats[] previewStats;
+	private int previewStepSize;
+	private Preferences previewPrefs;
+	
 	// This must be created from EscapeTime-class
-	public EscapeTimeCache(EscapeTime prefs, int width, int height) {
-		super(prefs, width, height);
+	public EscapeTimeCache(EscapeTime prefs, PixelSink sink) {
+		super(prefs, sink);
 		typeLength = new int[width * height];
 		values = new float[width * height];
 		
-		stats = new OrbitTransfer.Stats[2];
+		stats = new OrbitTransfer.SharedStats[2];
 	}
 	
 	public EscapeTime prefs() {
@@ -34,6 +61,41 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 	public OrbitTransfer.Stats stats(int index) {
 		return stats[index];
 	}
+	
+	// Raw data for PosterRenderer
+	int[] typeLength() {
+		return typeLength;
+	}
+	
+	float[] values() {
+		return values;
+	}
+	
+	/**
+	 * If the cache is resumable, orbits that are stopped by maxIter are saved 
+	 * so that they are continued instead of calculated again if maxIter is raised.
+	 * This needs some doubles per lake point and is not possible for colorization 
+	 * methods that use the full orbit.
+	 */
+	public void setResumable(boolean resumable) {
+		if(resumable) {
+			resetStore();
+		} else {
+			store = null;
+		}
+	}
+	
+	public boolean isResumable() {
+		return store != null;
+	}
+	
+	/**
+	 * Discards all saved orbits, must be called if the layout of
+	 * saved states changes or if they might be outdated.
+	 */
+	private void resetStore() {
+		store = new OrbitStore(width * height, prefs().createOrbit().stateSize(width, height));
+	}
 
 	/** Calculates the color. If available, it is fetched from Cache,
 	 * otherwise the orbit given in the parameter is used.
@@ -47,22 +109,10 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 	public int color(Env env, int x, int y) {
 		int index = x + y * width();
 		
-		int type;
-		float v;
+		calculate(env, x, y, index);
 		
-		// Save or fetch value
-		if(typeLength[index] == 0) {
-			env.orbit.generate(x, y, width, height);
-			
-			type = env.orbit.type();
-			v = env.orbit.value;
-			
-			typeLength[index] = type | env.orbit.length();
-			values[index] = v;
-		} else {
-			type = typeLength[index] & EscapeTime.TYPE_MASK;
-			v = values[index];
-		}
+		int type = typeLength[index] & EscapeTime.TYPE_MASK;
+		float v = values[index];
 
 		// TODO: The following thing is ugly...
 		
@@ -76,20 +126,53 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 		}
 	}
 	
+	/** Generates the orbit of x, y unless the point is already in the cache. 
+	 */
+	private void calculate(Env env, int x, int y, int index) {
+		if(typeLength[index] == 0) {
+			if(store == null || !store.resume(index, env.orbit, x, y, width, height)) {
+				env.orbit.generate(x, y, width, height);
+			}
+			
+			typeLength[index] = env.orbit.type() | env.orbit.length();
+			values[index] = env.orbit.value;
+			
+			if(store != null) store.update(index, env.orbit);
+			
+			env.count(index);
+		}
+	}
+	
+	/** Points that are already in the cache (eg after the image was moved) are 
+	 * not calculated again, hence histograms must count them now.
+	 */
 	@Override
 	public void initStatistics() {
+		clearStatistics();
+		
+		if(histogram(0) != null || histogram(1) != null) {
+			collectStatistics(0, typeLength.length);
+		}
+	}
+	
+	@Override
+	public void clearStatistics() {
 		if(!prefs().bailoutTransfer().customStats()) {
-			stats[0] = new OrbitTransfer.Stats();
+			stats[0] = prefs().bailoutTransfer().createSharedStats();
 		} else {
 			stats[0] = null;
 		}
 
 		if(!prefs().lakeTransfer().customStats()) {
-			stats[1] = new OrbitTransfer.Stats();
+			stats[1] = prefs().lakeTransfer().createSharedStats();
 		} else {
 			stats[1] = null;
 		}
 	}
+	
+	private Histogram histogram(int index) {
+		return stats[index] != null ? stats[index].histogram() : null;
+	}
 
 	@Override
 	public boolean usesStats() {
@@ -97,14 +180,205 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 	}
 
 	@Override
-	public void updateStatisticsFromEnv(Environment env) {
+	public boolean updateStatisticsFromEnv(Environment env) {
 		Env e = (Env) env;
 		
+		boolean changed = false;
+		
 		for(int i = 0; i < 2; i++) {
 			if(stats[i] != null) {
-				stats[i].update(e.stats[i]);
+				changed |= stats[i].update(e.stats[i]);
+			}
+		}
+		
+		return changed;
+	}
+
+	/**
+	 * @return true if all points are in the cache.
+	 */
+	public boolean isComplete() {
+		for(int i = 0; i < typeLength.length; i++) {
+			if(typeLength[i] == 0) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/** If only colors changed since the last task (palettes or transfers), 
+	 * all points are known and a RecolorTask is sufficient. Samples of 
+	 * anti-aliasing are also colored again then.
+	 */
+	@Override
+	public AbstractImgCache.Task calculateInBackground() {
+		if(!antiAlias()) {
+			samples = null;
+		} else if(samples == null) {
+			samples = new SampleStore(width * height);
+		}
+		
+		if(isComplete() && (samples == null || samples.isComplete())) {
+			RecolorTask task = new RecolorTask(this);
+			task.start(this);
+			
+			return task;
+		}
+		
+		return super.calculateInBackground();
+	}
+	
+	@Override
+	public void collectStatistics(int start, int end) {
+		// Points of transfers with custom stats are skipped.
+		if(stats[0] == null && stats[1] == null) return;
+		
+		// Collect in local instances which are merged at the end.
+		OrbitTransfer.Stats bailout = stats[0] != null ? prefs().bailoutTransfer().createStats() : null;
+		OrbitTransfer.Stats lake = stats[1] != null ? prefs().lakeTransfer().createStats() : null;
+		
+		collectStatistics(typeLength, values, bailout, lake, start, end);
+		
+		if(bailout != null) stats[0].update(bailout);
+		if(lake != null) stats[1].update(lake);
+	}
+	
+	/** Adds the points start..end - 1 to bailout and lake, if they are not null.
+	 */
+	private void collectStatistics(int[] typeLength, float[] values, 
+			OrbitTransfer.Stats bailout, OrbitTransfer.Stats lake, int start, int end) {
+		CommonTransfer bailoutTransfer = prefs().bailoutTransfer().transfer();
+		CommonTransfer lakeTransfer = prefs().lakeTransfer().transfer();
+		
+		for(int i = start; i < end; i++) {
+			int type = typeLength[i] & EscapeTime.TYPE_MASK;
+			
+			if(type == EscapeTime.BAILOUT_TYPE) {
+				if(bailout == null) continue;
+				
+				float f = bailoutTransfer.transfer(values[i]);
+				
+				bailout.nextValue(f);
+				if(bailout.histogram() != null) bailout.histogram().add(f);
+			} else if(type == EscapeTime.LAKE_TYPE) {
+				if(lake == null) continue;
+				
+				float f = lakeTransfer.transfer(values[i]);
+
+				lake.nextValue(f);
+				if(lake.histogram() != null) lake.histogram().add(f);
+			}
+		}
+	}
+	
+	@Override
+	public void colors(int[] pixels, int start, int end) {
+		colors(typeLength, values, stats, pixels, start, end);
+		
+		if(samples != null) {
+			int[] sampleTypeLength = new int[SampleStore.SAMPLES];
+			float[] sampleValues = new float[SampleStore.SAMPLES];
+			
+			for(int i = start; i < end; i++) {
+				if(samples.contains(i)) {
+					samples.get(i, sampleTypeLength, sampleValues);
+					pixels[i] = average(pixels[i], sampleTypeLength, sampleValues);
+				}
+			}
+		}
+	}
+	
+	/** Color of a point with the global statistics. 
+	 */
+	private int color(int typeLength, float value) {
+		if((typeLength & EscapeTime.TYPE_MASK) == EscapeTime.BAILOUT_TYPE) {
+			return prefs().bailoutPalette().color(prefs().bailoutTransfer().value(value, stats[0]));
+		} else {
+			return prefs().lakePalette().color(prefs().lakeTransfer().value(value, stats[1]));
+		}
+	}
+	
+	/**
+	 * @return The mean of color and the colors of the samples.
+	 */
+	private int average(int color, int[] sampleTypeLength, float[] sampleValues) {
+		int a = color >>> 24, r = (color >> 16) & 0xff, g = (color >> 8) & 0xff, b = color & 0xff;
+		
+		for(int k = 0; k < SampleStore.SAMPLES; k++) {
+			int c = color(sampleTypeLength[k], sampleValues[k]);
+			
+			a += c >>> 24; 
+			r += (c >> 16) & 0xff;
+			g += (c >> 8) & 0xff;
+			b += c & 0xff;
+		}
+		
+		int n = SampleStore.SAMPLES + 1;
+		
+		return ((a + n / 2) / n) << 24 | ((r + n / 2) / n) << 16 | ((g + n / 2) / n) << 8 | ((b + n / 2) / n);
+	}
+	
+	/**
+	 * @return true if x, y has the given color and a neighbour differs from it. 
+	 */
+	private boolean isEdge(int x, int y, int color) {
+		int index = x + y * width;
+		
+		return (x > 0 && differs(color, color(typeLength[index - 1], values[index - 1])))
+				|| (x < width - 1 && differs(color, color(typeLength[index + 1], values[index + 1])))
+				|| (y > 0 && differs(color, color(typeLength[index - width], values[index - width])))
+				|| (y < height - 1 && differs(color, color(typeLength[index + width], values[index + width])));
+	}
+	
+	/**
+	 * @return true if a color channel of c0 and c1 differs by more than EDGE_THRESHOLD.
+	 */
+	private static boolean differs(int c0, int c1) {
+		for(int shift = 0; shift < 32; shift += 8) {
+			if(Math.abs(((c0 >>> shift) & 0xff) - ((c1 >>> shift) & 0xff)) > EDGE_THRESHOLD) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/** Colors the points start..end - 1 that are known.
+	 * @return false if some points are unknown, their pixels are not modified.
+	 */
+	private boolean colors(int[] typeLength, float[] values, OrbitTransfer.Stats[] stats, 
+			int[] pixels, int start, int end) {
+		OrbitTransfer bailoutTransfer = prefs().bailoutTransfer();
+		OrbitTransfer lakeTransfer = prefs().lakeTransfer();
+		Palette bailoutPalette = prefs().bailoutPalette();
+		Palette lakePalette = prefs().lakePalette();
+		
+		boolean complete = true;
+		
+		for(int i = start; i < end; i++) {
+			int type = typeLength[i] & EscapeTime.TYPE_MASK;
+			
+			if(type == EscapeTime.BAILOUT_TYPE) {
+				pixels[i] = bailoutPalette.color(bailoutTransfer.value(values[i], stats[0]));
+			} else if(type == EscapeTime.LAKE_TYPE) {
+				pixels[i] = lakePalette.color(lakeTransfer.value(values[i], stats[1]));
+			} else {
+				complete = false;
 			}
 		}
+		
+		return complete;
+	}
+	
+	@Override
+	public int previewStepSize() {
+		return previewPrefs == prefs() ? previewStepSize : 0;
+	}
+	
+	@Override
+	public boolean previewColors(int[] pixels, int start, int end) {
+		return colors(previewTypeLength, previewValues, previewStats, pixels, start, end);
 	}
 
 	public RasterTask.Environment createEnvironment() {
@@ -112,13 +386,102 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 	}
 
 	
-	private class Env implements RasterTask.Environment {
+	private class Env implements RasterTask.FillableEnvironment, RasterTask.AntiAliasingEnvironment {
 		Orbit orbit = prefs().createOrbit();
-		OrbitTransfer.Stats[] stats = new OrbitTransfer.Stats[]{new OrbitTransfer.Stats(), new OrbitTransfer.Stats()};
+		OrbitTransfer.Stats[] stats = new OrbitTransfer.Stats[]{
+				prefs().bailoutTransfer().createStats(), 
+				prefs().lakeTransfer().createStats()};
+		
+		int[] sampleTypeLength = new int[SampleStore.SAMPLES];
+		float[] sampleValues = new float[SampleStore.SAMPLES];
+		
+		/** Adds a point that just entered the cache to the histograms. 
+		 * Points are colored several times, hence this is not done in color.
+		 */
+		void count(int index) {
+			if((typeLength[index] & EscapeTime.TYPE_MASK) == EscapeTime.BAILOUT_TYPE) {
+				if(stats[0].histogram() != null) {
+					stats[0].histogram().add(prefs().bailoutTransfer().transfer().transfer(values[index]));
+				}
+			} else {
+				if(stats[1].histogram() != null) {
+					stats[1].histogram().add(prefs().lakeTransfer().transfer().transfer(values[index]));
+				}
+			}
+		}
 
 		public int color(int x, int y) {
 			return EscapeTimeCache.this.color(this, x, y);
 		}
+
+		// Bailout points of the same length and all lake points are filled 
+		// (lake points converge after different numbers of iterations). 
+		// The value of the source point is copied, hence smooth gradients 
+		// inside filled areas are lost.
+		public int key(int x, int y) {
+			int index = x + y * width();
+			calculate(this, x, y, index);
+			
+			int type = typeLength[index] & EscapeTime.TYPE_MASK;
+			
+			return type == EscapeTime.LAKE_TYPE ? type : typeLength[index];
+		}
+
+		public void fill(int x, int y, int srcX, int srcY) {
+			int index = x + y * width();
+			
+			if(typeLength[index] == 0) {
+				int srcIndex = srcX + srcY * width();
+				
+				typeLength[index] = typeLength[srcIndex];
+				values[index] = values[srcIndex];
+				
+				if(store != null) store.invalidate(index);
+				
+				count(index);
+			}
+		}
+		
+		// Pixels whose color differs from a neighbour get SAMPLES more points, one 
+		// in each quarter of the pixel at a jittered position. Samples are not 
+		// counted in the statistics.
+		public int antiAliasedColor(int x, int y) {
+			int index = x + y * width;
+			int color = EscapeTimeCache.this.color(typeLength[index], values[index]);
+			
+			if(samples == null) return color;
+			
+			if(!samples.isChecked(index)) {
+				if(!isEdge(x, y, color)) {
+					samples.check(index);
+					return color;
+				}
+				
+				// Jitter is derived from the index so that images are reproducible.
+				int seed = index * 0x9e3779b9;
+				
+				for(int k = 0; k < SampleStore.SAMPLES; k++) {
+					seed = seed * 1103515245 + 12345;
+					float jx = ((seed >>> 8) & 0xff) / 1024f; // 0 .. 0.25
+					seed = seed * 1103515245 + 12345;
+					float jy = ((seed >>> 8) & 0xff) / 1024f;
+					
+					orbit.generate(x - 0.5f + (k & 1) * 0.5f + jx + 0.125f, 
+							y - 0.5f + (k >> 1) * 0.5f + jy + 0.125f, width, height);
+					
+					sampleTypeLength[k] = orbit.type() | orbit.length();
+					sampleValues[k] = orbit.value;
+				}
+				
+				samples.put(index, sampleTypeLength, sampleValues);
+			} else if(!samples.contains(index)) {
+				return color;
+			} else {
+				samples.get(index, sampleTypeLength, sampleValues);
+			}
+			
+			return average(color, sampleTypeLength, sampleValues);
+		}
 	}
 	
 	@Override
@@ -127,30 +490,52 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 			int length = typeLength[i] & AbstractOrbitPrefs.LENGTH_MASK;
 				
 			if(length == oldMaxIter || newMaxIter < length) {
+				// Lake points with a saved orbit are continued by calculate.
+				if(store != null && oldMaxIter < newMaxIter) store.markResumable(i);
+				
 				typeLength[i] = 0;
 			}
 		}
+		
+		// Samples of all pixels might contain such points.
+		samples = null;
 	}
 	
 	@Override
 	public void clear() {
 		Arrays.fill(typeLength, 0);
+		
+		if(store != null) resetStore();
+		
+		samples = null;
+		
+		previewTypeLength = null;
+		previewValues = null;
+		previewStats = null;
 	}
 
 	@Override
 	public void resize(int width, int height) {
 		this.typeLength = null;
 		this.values = null;
+		this.previewTypeLength = null;
+		this.previewValues = null;
+		this.samples = null;
 		
-		resizeBitmap(width, height);
+		resizeImage(width, height);
 		
 		typeLength = new int[width * height];
 		values = new float[width * height];
+		
+		if(store != null) resetStore();
 	}
 
 
 	@Override
 	protected void moveData(int dx, int dy) {
+		// The pattern of samples depends on the position, hence they are taken again.
+		samples = null;
+		
 		int ix = dx >= 0 ? 1 : -1;
 		int iy = dy >= 0 ? 1 : -1;
 		
@@ -163,26 +548,104 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 						int lastIndex = (x + dx) + (y + dy) * width();
 						typeLength[index] = typeLength[lastIndex];
 						values[index] = values[lastIndex];
+						
+						if(store != null) store.move(lastIndex, index);
 					} else {
 						typeLength[index] = 0;
+						
+						if(store != null) store.remove(index);
 					}
 				}
 			} else {
 				int index = y * width();
 				for(int x = 0; x < width(); x++) {
 					typeLength[index] = 0;
+					
+					if(store != null) store.remove(index);
+					
 					index ++;
 				}
 			}
 		}
+		
+		if(store != null) store.reclaim();
 	}
 
-	public void newFunction(Function function) {
+	/** The nearest points of the old image (or of its preview if they were not 
+	 * calculated yet) become the preview of the new image. 
+	 */
+	@Override
+	protected void scaleData(Affine relative, ScaleablePrefs oldPrefs) {
+		boolean chain = previewTypeLength != null && previewPrefs == oldPrefs;
+		
+		int[] previewTypeLength = new int[width * height];
+		float[] previewValues = new float[width * height];
+		
+		int size = Math.min(width, height);
+		float x0 = prefs().normX(0, width, height);
+		float y0 = prefs().normY(0, width, height);
+		
+		Cplx p = new Cplx();
+		
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				relative.map(prefs().normX(x, width, height), prefs().normY(y, width, height), p);
+				
+				int srcX = (int) Math.floor((p.re() - x0) * size + 0.5);
+				int srcY = (int) Math.floor((p.im() - y0) * size + 0.5);
+				
+				if(srcX < 0 || srcX >= width || srcY < 0 || srcY >= height) continue;
+				
+				int index = x + y * width;
+				int srcIndex = srcX + srcY * width;
+				
+				if(typeLength[srcIndex] != 0) {
+					previewTypeLength[index] = typeLength[srcIndex];
+					previewValues[index] = values[srcIndex];
+				} else if(chain) {
+					previewTypeLength[index] = this.previewTypeLength[srcIndex];
+					previewValues[index] = this.previewValues[srcIndex];
+				}
+			}
+		}
+		
 		clear();
 		
+		this.previewTypeLength = previewTypeLength;
+		this.previewValues = previewValues;
+		this.previewPrefs = prefs();
+		
+		// One old pixel covers about this many new pixels in each direction.
+		double[] m = relative.get();
+		double scale = 1. / Math.sqrt(Math.abs(m[0] * m[4] - m[1] * m[3]));
+		this.previewStepSize = (int) Math.max(1, Math.min(Math.round(scale), Integer.MAX_VALUE));
+		
+		// Histograms can only be used after they were merged.
+		OrbitTransfer.Stats bailout = prefs().bailoutTransfer().customStats() ? null : prefs().bailoutTransfer().createStats();
+		OrbitTransfer.Stats lake = prefs().lakeTransfer().customStats() ? null : prefs().lakeTransfer().createStats();
+		
+		collectStatistics(previewTypeLength, previewValues, bailout, lake, 0, previewTypeLength.length);
+		
+		previewStats = new OrbitTransfer.Stats[2];
+		
+		if(bailout != null) {
+			previewStats[0] = prefs().bailoutTransfer().createStats();
+			previewStats[0].update(bailout);
+		}
+		
+		if(lake != null) {
+			previewStats[1] = prefs().lakeTransfer().createStats();
+			previewStats[1].update(lake);
+		}
+	}
+
+	public void newFunction(Function function) {
 		setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), function, 
 				prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-				prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+				prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+		
+		// After setPrefs because the layout of saved orbits depends on the function.
+		clear();
 	}
 
 	public void newBailout(double bailout) {
@@ -197,13 +660,15 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 						typeLength[i] = 0;
 					}
 				}
+				
+				samples = null;
 			} else {
 				clear();
 			}
 			
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					bailout, prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-					prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+					prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
 		}
 	}
 
@@ -217,31 +682,36 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 					typeLength[i] = 0;
 				}
 			}
+			
+			samples = null;
 						
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					prefs().bailout(), bailoutMethod, prefs().bailoutTransfer(), prefs().bailoutPalette(),
-					prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+					prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+			
+			// Saved orbits contain the sum of the old method.
+			if(store != null) resetStore();
 		}
 	}
 	
 	
 	public void newBailoutTransfer(OrbitTransfer bailoutTransfer) {
 		if(bailoutTransfer != prefs().bailoutTransfer()) {
-			clearBitmap(); 
+			clearImage(); 
 			
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					prefs().bailout(), prefs().bailoutMethod(), bailoutTransfer, prefs().bailoutPalette(),
-					prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+					prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
 		}
 	}
 
 	public void newBailoutPalette(Palette bailoutPalette) {
 		// Keep cache
-		clearBitmap();
+		clearImage();
 		
 		setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 				prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), bailoutPalette,
-				prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+				prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
 	}
 	
 	public void newEpsilon(double epsilon) {
@@ -256,12 +726,45 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 						typeLength[i] = 0;
 					}
 				}
+				
+				samples = null;
 			} else {
 				clear();
 			}			
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-					epsilon, prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+					epsilon, prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+			
+			// Saved orbits might have converged earlier with the new epsilon.
+			if(store != null) resetStore();
+		}
+	}
+
+	public void newCycleTolerance(double cycleTolerance) {
+		if(cycleTolerance != prefs().cycleTolerance()) {
+			// if the new tolerance is smaller, then clear all lake
+			// (a bailout is still a bailout).
+			// if the new tolerance is greater, then clear everything.
+			if(cycleTolerance < prefs().cycleTolerance()) {
+				for(int i = 0; i < width() * height(); i++) {
+					int type = typeLength[i] & EscapeTime.TYPE_MASK;
+					
+					if(type == EscapeTime.LAKE_TYPE) {
+						typeLength[i] = 0;
+					}
+				}
+				
+				samples = null;
+			} else {
+				clear();
+			}
+			
+			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
+					prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
+					prefs().epsilon(), cycleTolerance, prefs().lakeMethod(), prefs().lakeTransfer(), prefs().lakePalette()));
+			
+			// Saved orbits might contain a cycle with the new tolerance.
+			if(store != null) resetStore();
 		}
 	}
 
@@ -276,30 +779,35 @@ public class EscapeTimeCache extends AbstractOrbitCache {
 				}
 			}
 			
+			samples = null;
+			
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-					prefs().epsilon(), lakeMethod, prefs().lakeTransfer(), prefs().lakePalette()));
+					prefs().epsilon(), prefs().cycleTolerance(), lakeMethod, prefs().lakeTransfer(), prefs().lakePalette()));
+			
+			// Saved orbits contain the sum of the old method.
+			if(store != null) resetStore();
 		}
 	}
 	
 	public void newLakeTransfer(OrbitTransfer lakeTransfer) {
 		if(lakeTransfer != prefs().lakeTransfer()) {
 			// Keep cache.
-			clearBitmap(); 
+			clearImage(); 
 			
 			setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 					prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-					prefs().epsilon(), prefs().lakeMethod(), lakeTransfer, prefs().lakePalette()));
+					prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), lakeTransfer, prefs().lakePalette()));
 		}
 	}
 
 	public void newLakePalette(Palette lakePalette) {
 		// Keep cache
-		clearBitmap();
+		clearImage();
 		
 		setPrefs(new EscapeTime(prefs().affine(), prefs().maxIter(), prefs().function(), 
 				prefs().bailout(), prefs().bailoutMethod(), prefs().bailoutTransfer(), prefs().bailoutPalette(),
-				prefs().epsilon(), prefs().lakeMethod(), prefs().lakeTransfer(), lakePalette));
+				prefs().epsilon(), prefs().cycleTolerance(), prefs().lakeMethod(), prefs().lakeTransfer(), lakePalette));
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes.orbit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Type, length and value of all points of an image that is too large for the heap.
+ * The data is kept in a file that is split into bands of rows. Bands are mapped into 
+ * memory when they are accessed and only the most recently used ones stay mapped,
+ * the operating system writes the others back to the file.
+ */
+class MappedOrbitData implements Closeable {
+	
+	// Number of bands that are mapped at the same time.
+	private static final int MAPPED_BANDS = 4;
+	
+	// typeLength and value
+	private static final int BYTES_PER_POINT = 8;
+	
+	private int width;
+	private int height;
+	private int bandHeight;
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	
+	// In access order, the eldest band is unmapped when there are too many.
+	private Map<Integer, ByteBuffer> mapped = new LinkedHashMap<Integer, ByteBuffer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 2810463931513386734L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+			return size() > MAPPED_BANDS;
+		}
+	};
+	
+	/**
+	 * @param path The file is created or overwritten.
+	 * @param width
+	 * @param height
+	 * @param bandHeight Number of rows of a band, at most 2 GB must be mapped for a band.
+	 * @throws IOException
+	 */
+	MappedOrbitData(File path, int width, int height, int bandHeight) throws IOException {
+		if((long) width * bandHeight * BYTES_PER_POINT > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("bands of " + width + " x " + bandHeight + " are too large");
+		}
+		
+		this.width = width;
+		this.height = height;
+		this.bandHeight = bandHeight;
+		
+		this.file = new RandomAccessFile(path, "rw");
+		this.channel = file.getChannel();
+		
+		file.setLength((long) width * height * BYTES_PER_POINT);
+	}
+	
+	int bandCount() {
+		return (height + bandHeight - 1) / bandHeight;
+	}
+	
+	/**
+	 * @param band
+	 * @return Number of points in band (the last band might be shorter)
+	 */
+	int size(int band) {
+		return width * Math.min(bandHeight, height - band * bandHeight);
+	}
+	
+	/**
+	 * Stores the first size(band) points of typeLength and values.
+	 */
+	void write(int band, int[] typeLength, float[] values) throws IOException {
+		ByteBuffer buffer = band(band);
+		int size = size(band);
+		
+		buffer.clear();
+		buffer.asIntBuffer().put(typeLength, 0, size);
+		
+		buffer.position(size * 4);
+		buffer.asFloatBuffer().put(values, 0, size);
+	}
+	
+	/**
+	 * Reads the points of band into the first size(band) elements of 
+	 * typeLength and values.
+	 */
+	void read(int band, int[] typeLength, float[] values) throws IOException {
+		ByteBuffer buffer = band(band);
+		int size = size(band);
+		
+		buffer.clear();
+		buffer.asIntBuffer().get(typeLength, 0, size);
+		
+		buffer.position(size * 4);
+		buffer.asFloatBuffer().get(values, 0, size);
+	}
+	
+	private ByteBuffer band(int band) throws IOException {
+		ByteBuffer buffer = mapped.get(band);
+		
+		if(buffer == null) {
+			long position = (long) band * bandHeight * width * BYTES_PER_POINT;
+			
+			// There is no unmap, the memory is released when the buffer is collected.
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) size(band) * BYTES_PER_POINT);
+			buffer.order(ByteOrder.nativeOrder());
+			
+			mapped.put(band, buffer);
+		}
+		
+		return buffer;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		mapped.clear();
+		
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,118 @@
+package com.fractview.modes.orbit;
+
+import com.fractview.modes.orbit.EscapeTime.Orbit;
+
+/**
+ * Keeps the state of orbits that were stopped by maxIter so that they can be
+ * continued if maxIter is raised instead of being calculated again from the start.
+ *
+ * States are stored in chunks of doubles that are allocated when they are needed,
+ * hence memory is only used for lake points. Each pixel that ever reached maxIter
+ * gets a slot that it keeps until the store is discarded.
+ *
+ * A pixel is only accessed by the thread that calculates it, slots are shared
+ * (see SlotAllocator).
+ */
+class OrbitStore {
+
+	// Flags of a pixel besides its slot.
+	private static final int SAVED = 0x40000000; // The slot contains the current orbit of the pixel
+	private static final int RESUMABLE = 0x80000000; // The next calculation continues the saved orbit
+
+	private final int stateSize;
+	private final SlotAllocator slots;
+	private final SlotAllocator.Chunks<double[]> states;
+
+	/**
+	 * @param pixelCount
+	 * @param stateSize Size of a state as returned by Orbit.stateSize(w, h). If it is 0,
+	 * orbits cannot be saved and nothing is stored.
+	 */
+	OrbitStore(int pixelCount, int stateSize) {
+		this.stateSize = stateSize;
+		this.slots = new SlotAllocator(pixelCount);
+		this.states = new SlotAllocator.Chunks<double[]>(slots, stateSize) {
+			@Override
+			protected double[] create(int length) {
+				return new double[length];
+			}
+		};
+	}
+
+	/**
+	 * Continues the orbit of pixel index if it was marked by markResumable.
+	 * @return false if orbit was not modified and must be generated from the start.
+	 */
+	boolean resume(int index, Orbit orbit, int x, int y, int w, int h) {
+		if((slots.word(index) & RESUMABLE) == 0) {
+			return false;
+		}
+
+		int slot = slots.slot(index);
+
+		orbit.resume(x, y, w, h, states.chunk(slot), states.offset(slot));
+		return true;
+	}
+
+	/**
+	 * Must be called after pixel index was calculated. Saves the orbit if
+	 * it was stopped by maxIter.
+	 */
+	void update(int index, Orbit orbit) {
+		if(stateSize == 0 || !orbit.reachedMaxIter()) {
+			invalidate(index);
+			return;
+		}
+
+		int slot = slots.allocate(index);
+
+		orbit.save(states.chunk(slot), states.offset(slot));
+		slots.assign(index, slot, SAVED);
+	}
+
+	/**
+	 * Called if pixel index was set without calculating its orbit.
+	 */
+	void invalidate(int index) {
+		slots.setWord(index, slots.word(index) & SlotAllocator.SLOT_MASK);
+	}
+
+	/**
+	 * If the orbit of pixel index was saved, the next calculation will continue it.
+	 * @return true if the pixel can be resumed.
+	 */
+	boolean markResumable(int index) {
+		int word = slots.word(index);
+		
+		if((word & SAVED) == 0) {
+			return false;
+		}
+
+		slots.setWord(index, word | RESUMABLE);
+		return true;
+	}
+
+	/**
+	 * Moves the state of pixel src to pixel dst (used when the image is moved).
+	 * src must be overwritten by move or remove afterwards, otherwise
+	 * two pixels share a slot.
+	 */
+	void move(int src, int dst) {
+		slots.setWord(dst, slots.word(src));
+	}
+
+	/**
+	 * Pixel index is discarded, its slot is lost until reclaim is called.
+	 */
+	void remove(int index) {
+		slots.setWord(index, 0);
+	}
+	
+	/**
+	 * Must be called after pixels were moved or removed, otherwise their old 
+	 * slots are lost.
+	 */
+	void reclaim() {
+		slots.reclaim();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes.orbit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import com.fractview.io.PngWriter;
+import com.fractview.math.Affine;
+import com.fractview.math.colors.Palette;
+import com.fractview.modes.PixelSink;
+import com.fractview.modes.RasterTask;
+import com.fractview.modes.orbit.colorization.OrbitTransfer;
+
+/**
+ * Renders images that are too large for the heap (e.g. posters of 20000 x 20000 
+ * pixels) into a PNG. Bands of rows are calculated one after another by ordinary
+ * caches and their points are kept in a MappedOrbitData until the statistics of 
+ * the whole image are known. Then the bands are colored and streamed into a 
+ * PngWriter, hence the heap only has to hold a few bands.
+ */
+public class PosterRenderer {
+	
+	public static final int DEFAULT_BAND_HEIGHT = 256;
+	
+	private EscapeTime prefs;
+	
+	private int width;
+	private int height;
+	private int bandHeight = DEFAULT_BAND_HEIGHT;
+	
+	private int threadCount;
+	
+	public PosterRenderer(EscapeTime prefs, int width, int height, int threadCount) {
+		this.prefs = prefs;
+		this.width = width;
+		this.height = height;
+		this.threadCount = threadCount;
+	}
+	
+	public void setBandHeight(int bandHeight) {
+		this.bandHeight = bandHeight;
+	}
+	
+	/**
+	 * @param dataFile Temporary file for the points, it needs 8 bytes per 
+	 * pixel and it is deleted at the end.
+	 * @param out The PNG is written into this stream, it is not closed.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void render(File dataFile, OutputStream out) throws IOException, InterruptedException {
+		MappedOrbitData data = new MappedOrbitData(dataFile, width, height, bandHeight);
+		
+		try {
+			// Statistics of the whole image, null for transfers with custom stats.
+			OrbitTransfer.Stats[] stats = {
+					prefs.bailoutTransfer().customStats() ? null : prefs.bailoutTransfer().createSharedStats(), 
+					prefs.lakeTransfer().customStats() ? null : prefs.lakeTransfer().createSharedStats()};
+			
+			for(int band = 0; band < data.bandCount(); band++) {
+				EscapeTimeCache cache = calculate(band);
+				
+				data.write(band, cache.typeLength(), cache.values());
+				
+				for(int k = 0; k < 2; k++) {
+					if(stats[k] != null) stats[k].update(cache.stats(k));
+				}
+			}
+			
+			PngWriter png = new PngWriter(out, width, height, Deflater.DEFAULT_COMPRESSION, threadCount);
+			
+			int[] typeLength = new int[width * bandHeight];
+			float[] values = new float[width * bandHeight];
+			int[] argb = new int[width * bandHeight];
+			
+			for(int band = 0; band < data.bandCount(); band++) {
+				data.read(band, typeLength, values);
+				
+				int size = data.size(band);
+				
+				colors(typeLength, values, stats, argb, size);
+				png.writeRows(argb, 0, size / width);
+			}
+			
+			png.finish();
+		} finally {
+			data.close();
+			dataFile.delete();
+		}
+	}
+	
+	/** Calculates all points of a band in a cache of the size of the band.
+	 */
+	private EscapeTimeCache calculate(int band) throws InterruptedException {
+		int y0 = band * bandHeight;
+		int rows = Math.min(bandHeight, height - y0);
+		
+		EscapeTimeCache cache = new EscapeTimeCache(bandPrefs(y0, rows), new BandSink(width, rows));
+		
+		RasterTask task = new RasterTask(cache, threadCount);
+		task.start(cache);
+		task.join();
+		
+		if(!cache.isComplete()) {
+			throw new IllegalStateException("band " + band + " was not completed");
+		}
+		
+		return cache;
+	}
+	
+	/** Normalized coordinates depend on the size of the image. This returns
+	 * preferences in which the pixels of a band of rows starting at y0 are 
+	 * mapped to the same points as in the whole image. Deep zooms use the
+	 * reference orbit of the whole image for all bands.
+	 */
+	private EscapeTime bandPrefs(int y0, int rows) {
+		double size = Math.min(width, height);
+		double bandSize = Math.min(width, rows);
+		
+		double scale = bandSize / size;
+		
+		// Maps normalized coordinates of the band to those of the image
+		Affine affine = Affine.create(
+				scale, 0, (size - bandSize) / (2 * size), 
+				0, scale, (2 * y0 + rows - bandSize + size - height) / (2 * size));
+		
+		affine.preConcat(prefs.affine());
+		
+		return prefs.newBandInstance(affine, width, height, y0);
+	}
+	
+	private void colors(int[] typeLength, float[] values, OrbitTransfer.Stats[] stats, int[] argb, int size) {
+		OrbitTransfer bailoutTransfer = prefs.bailoutTransfer();
+		OrbitTransfer lakeTransfer = prefs.lakeTransfer();
+		Palette bailoutPalette = prefs.bailoutPalette();
+		Palette lakePalette = prefs.lakePalette();
+		
+		for(int i = 0; i < size; i++) {
+			if((typeLength[i] & EscapeTime.TYPE_MASK) == EscapeTime.BAILOUT_TYPE) {
+				argb[i] = bailoutPalette.color(bailoutTransfer.value(values[i], stats[0]));
+			} else {
+				argb[i] = lakePalette.color(lakeTransfer.value(values[i], stats[1]));
+			}
+		}
+	}
+	
+	/** The colors of the bands are not needed, they are calculated from the points
+	 * once the statistics are complete.
+	 */
+	private static class BandSink implements PixelSink {
+		private int width;
+		private int height;
+		
+		BandSink(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+		
+		public int width() {
+			return width;
+		}
+		
+		public int height() {
+			return height;
+		}
+		
+		public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {}
+		
+		public void clear() {}
+		
+		public void resize(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+	}
+}
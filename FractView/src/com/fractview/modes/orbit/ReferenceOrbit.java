@@ -0,0 +1,257 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes.orbit;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+
+import com.fractview.math.Affine;
+import com.fractview.math.tree.Expr;
+import com.fractview.math.tree.Num;
+import com.fractview.math.tree.Op;
+import com.fractview.math.tree.Var;
+import com.fractview.modes.orbit.functions.Function;
+
+/**
+ * Orbit of the center of a deep zoom that is calculated with BigDecimals and 
+ * then rounded to doubles. Orbits of pixels are calculated as differences to 
+ * it in double precision (perturbation), this is only possible for functions
+ * z^p + c with z(0) = 0.
+ */
+class ReferenceOrbit {
+	
+	// Digits on top of the ones that are needed to tell the center apart from a point
+	// at distance scale. Rounding errors grow in each iteration, these absorb them.
+	private static final int GUARD_DIGITS = 20;
+	
+	// Most references bail out long before maxIter, the arrays start small and grow.
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final double cRe;
+	private final double cIm;
+	private final int degree;
+	private final double bailout;
+	
+	private final double[] re;
+	private final double[] im;
+	private final int length;
+	
+	/**
+	 * @param affine The view, the reference is its precise center.
+	 * @param degree p of the function as returned by degree
+	 * @param maxIter
+	 * @param bailout The orbit stops if it leaves this radius
+	 * @throws CancellationException if the thread is interrupted, this can take 
+	 * a long time for deep zooms.
+	 */
+	ReferenceOrbit(Affine affine, int degree, int maxIter, double bailout) {
+		this.degree = degree;
+		this.bailout = bailout;
+		
+		double[] m = affine.get();
+		double scale = Math.sqrt(Math.abs(m[0] * m[4] - m[1] * m[3]));
+		MathContext mc = new MathContext(GUARD_DIGITS + (int) Math.ceil(Math.max(0, -Math.log10(scale))));
+		
+		BigDecimal[] center = affine.preciseCenter();
+		
+		BigDecimal cr = center[0];
+		BigDecimal ci = center[1];
+		
+		this.cRe = cr.doubleValue();
+		this.cIm = ci.doubleValue();
+		
+		BigDecimal zr = BigDecimal.ZERO;
+		BigDecimal zi = BigDecimal.ZERO;
+		
+		int capacity = Math.min(maxIter + 1, INITIAL_CAPACITY);
+		
+		double[] re = new double[capacity];
+		double[] im = new double[capacity];
+		
+		int n = 1; // re[0] and im[0] are 0.
+		
+		for(; n <= maxIter; n++) {
+			if(Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("reference orbit was interrupted");
+			}
+			
+			if(n == re.length) {
+				int newCapacity = (int) Math.min(maxIter + 1L, 2L * re.length);
+				re = copy(re, newCapacity);
+				im = copy(im, newCapacity);
+			}
+			
+			// z^p
+			BigDecimal pr = zr;
+			BigDecimal pi = zi;
+			
+			for(int k = 1; k < degree; k++) {
+				BigDecimal r = pr.multiply(zr, mc).subtract(pi.multiply(zi, mc), mc);
+				pi = pr.multiply(zi, mc).add(pi.multiply(zr, mc), mc);
+				pr = r;
+			}
+			
+			zr = pr.add(cr, mc);
+			zi = pi.add(ci, mc);
+			
+			re[n] = zr.doubleValue();
+			im[n] = zi.doubleValue();
+			
+			if(re[n] * re[n] + im[n] * im[n] >= bailout * bailout) {
+				n++;
+				break;
+			}
+		}
+		
+		this.re = copy(re, n);
+		this.im = copy(im, n);
+		this.length = n;
+	}
+	
+	/**
+	 * @return the first length elements of src, src itself if it has this length.
+	 */
+	private static double[] copy(double[] src, int length) {
+		if(src.length == length) {
+			return src;
+		}
+		
+		double[] dst = new double[length];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+		return dst;
+	}
+
+	/**
+	 * Perturbation: If a point is point n of this orbit plus d and its c is the center 
+	 * plus dc, its next point is point n + 1 plus the difference that is written into dst.
+	 * @param n
+	 * @param dRe
+	 * @param dIm
+	 * @param dcRe
+	 * @param dcIm
+	 * @param dst
+	 */
+	void perturb(int n, double dRe, double dIm, double dcRe, double dcIm, double[] dst) {
+		double zr = re[n];
+		double zi = im[n];
+		
+		// (z + d)^p - z^p = d * sum_{k < p} (z + d)^k * z^(p - 1 - k), evaluated
+		// by s = s * (z + d) + z^k so that no small differences of big values occur.
+		double ar = zr + dRe;
+		double ai = zi + dIm;
+		
+		double sr = 1, si = 0;
+		double pr = 1, pi = 0;
+		
+		for(int k = 1; k < degree; k++) {
+			double t = pr * zr - pi * zi;
+			pi = pr * zi + pi * zr;
+			pr = t;
+			
+			t = sr * ar - si * ai + pr;
+			si = sr * ai + si * ar + pi;
+			sr = t;
+		}
+		
+		dst[0] = dRe * sr - dIm * si + dcRe;
+		dst[1] = dRe * si + dIm * sr + dcIm;
+	}
+	
+	/**
+	 * @param function
+	 * @return p if the function is z^p + c (for an integer p >= 2) and z(0) = 0, 
+	 * otherwise 0 because perturbation is not possible.
+	 */
+	static int degree(Function function) {
+		if(function.initsSize() != 1 || !function.init(0).get().isNum(0, 0) || !function.parameters().isEmpty()) {
+			return 0;
+		}
+		
+		Expr expr = function.function().get();
+		
+		if(!expr.isApp(Op.ADD)) {
+			return 0;
+		}
+		
+		if(isVar(expr.get(1), "c")) {
+			return power(expr.get(0));
+		} else if(isVar(expr.get(0), "c")) {
+			return power(expr.get(1));
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * @return p if expr is z^p, otherwise 0.
+	 */
+	private static int power(Expr expr) {
+		if(expr.isApp(Op.SQR) && isVar(expr.get(0), "z")) {
+			return 2;
+		} else if(expr.isApp(Op.MUL) && isVar(expr.get(0), "z") && isVar(expr.get(1), "z")) {
+			return 2;
+		} else if(expr.isApp(Op.POW) && isVar(expr.get(0), "z") && expr.get(1) instanceof Num) {
+			Num p = (Num) expr.get(1);
+			
+			if(p.isInt() && p.intValue() >= 2) {
+				return p.intValue();
+			}
+		}
+		
+		return 0;
+	}
+	
+	private static boolean isVar(Expr expr, String id) {
+		return expr instanceof Var && ((Var) expr).is(id);
+	}
+	
+	/**
+	 * @return The center rounded to doubles.
+	 */
+	double cRe() {
+		return cRe;
+	}
+	
+	double cIm() {
+		return cIm;
+	}
+	
+	int degree() {
+		return degree;
+	}
+	
+	double bailout() {
+		return bailout;
+	}
+	
+	/**
+	 * @return The number of points, the last one is outside of the
+	 * bailout-radius unless the orbit reached maxIter.
+	 */
+	int length() {
+		return length;
+	}
+	
+	double re(int i) {
+		return re[i];
+	}
+	
+	double im(int i) {
+		return im[i];
+	}
+}
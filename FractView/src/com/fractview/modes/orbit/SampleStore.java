@@ -0,0 +1,90 @@
+package com.fractview.modes.orbit;
+
+/**
+ * Additional samples of pixels at edges for anti-aliasing. Each sampled pixel
+ * has SAMPLES points inside of it (besides the pixel itself) that are stored
+ * like the points of the cache, as typeLength and value, so that they can be
+ * colored again if palettes or transfers change.
+ *
+ * Samples are stored in chunks that are allocated when they are needed, hence
+ * memory is only used for edge pixels. Like in OrbitStore a pixel is only accessed
+ * by the thread that calculates it.
+ */
+class SampleStore {
+
+	static final int SAMPLES = 4;
+
+	// Flag of a pixel besides its slot.
+	private static final int CHECKED = 0x80000000; // The pixel was tested whether it is at an edge
+
+	private final SlotAllocator slots;
+	private final SlotAllocator.Chunks<int[]> typeLengthChunks;
+	private final SlotAllocator.Chunks<float[]> valueChunks;
+
+	SampleStore(int pixelCount) {
+		this.slots = new SlotAllocator(pixelCount);
+		this.typeLengthChunks = new SlotAllocator.Chunks<int[]>(slots, SAMPLES) {
+			@Override
+			protected int[] create(int length) {
+				return new int[length];
+			}
+		};
+		this.valueChunks = new SlotAllocator.Chunks<float[]>(slots, SAMPLES) {
+			@Override
+			protected float[] create(int length) {
+				return new float[length];
+			}
+		};
+	}
+
+	boolean isChecked(int index) {
+		return (slots.word(index) & CHECKED) != 0;
+	}
+
+	/**
+	 * @return true if all pixels were checked.
+	 */
+	boolean isComplete() {
+		for(int i = 0; i < slots.pixelCount(); i++) {
+			if((slots.word(i) & CHECKED) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Called for pixels that do not need samples.
+	 */
+	void check(int index) {
+		slots.setWord(index, slots.word(index) | CHECKED);
+	}
+
+	boolean contains(int index) {
+		return slots.slot(index) >= 0;
+	}
+
+	/**
+	 * Stores the SAMPLES samples of pixel index and marks it as checked.
+	 */
+	void put(int index, int[] typeLength, float[] values) {
+		int slot = slots.allocate(index);
+
+		System.arraycopy(typeLength, 0, typeLengthChunks.chunk(slot), typeLengthChunks.offset(slot), SAMPLES);
+		System.arraycopy(values, 0, valueChunks.chunk(slot), valueChunks.offset(slot), SAMPLES);
+
+		slots.assign(index, slot, CHECKED);
+	}
+
+	/**
+	 * Copies the samples of pixel index into typeLength and values.
+	 * The pixel must contain samples.
+	 */
+	void get(int index, int[] typeLength, float[] values) {
+		int slot = slots.slot(index);
+
+		System.arraycopy(typeLengthChunks.chunk(slot), typeLengthChunks.offset(slot), typeLength, 0, SAMPLES);
+		System.arraycopy(valueChunks.chunk(slot), valueChunks.offset(slot), values, 0, SAMPLES);
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes.orbit;
+
+/**
+ * Series approximation for perturbation: For the first iterations the difference d 
+ * of a pixel to the reference orbit is a polynomial in dc whose coefficients do not 
+ * depend on the pixel. They are calculated once for the view so that pixels can 
+ * start at a late iteration. 
+ * 
+ * Coefficients are scaled by the radius r of the view, hence d = sum_k b_k u^k with 
+ * u = dc / r and |u| <= 1. The series is used as long as its last term is negligible 
+ * and only if it agrees with the iterated orbits of probe points at the border of 
+ * the view.
+ */
+class SeriesApproximation {
+	
+	private static final int TERMS = 8;
+	
+	// Coefficients are valid while |b_TERMS| <= TOLERANCE * |b_1|
+	private static final double TOLERANCE = 1e-12;
+	
+	// Relative error of the difference of a probe point that is accepted
+	private static final double PROBE_TOLERANCE = 1e-6;
+	
+	// If fewer iterations could be skipped, the series is not used.
+	private static final int MIN_SKIP = 16;
+	
+	// Probes in units of half the width and height of the view.
+	private static final int[] PROBE_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+	private static final int[] PROBE_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+	
+	private final ReferenceOrbit reference;
+	private final double radius;
+	private final int width;
+	private final int height;
+	
+	private int skip;
+	
+	// Real and imaginary parts of b_1..b_TERMS at iteration skip.
+	private double[] coefficients;
+	
+	/**
+	 * @param reference
+	 * @param affine Matrix of the view as returned by Affine.get
+	 * @param width Size of the image
+	 * @param height
+	 */
+	SeriesApproximation(ReferenceOrbit reference, double[] affine, int width, int height) {
+		this.reference = reference;
+		this.width = width;
+		this.height = height;
+		
+		// Probes are the corners and the centers of the edges, with some margin
+		// for samples between pixels.
+		int size = Math.min(width, height);
+		double nx = (width / 2. + 1) / size;
+		double ny = (height / 2. + 1) / size;
+		
+		double[] probes = new double[2 * PROBE_X.length];
+		double radius = 0;
+		
+		for(int i = 0; i < PROBE_X.length; i++) {
+			double x = PROBE_X[i] * nx;
+			double y = PROBE_Y[i] * ny;
+			
+			probes[2 * i] = affine[0] * x + affine[1] * y;
+			probes[2 * i + 1] = affine[3] * x + affine[4] * y;
+			
+			radius = Math.max(radius, Math.hypot(probes[2 * i], probes[2 * i + 1]));
+		}
+		
+		this.radius = radius;
+		
+		int skip = candidate();
+		
+		while(skip >= MIN_SKIP) {
+			coefficients = coefficients(skip);
+			
+			int valid = probe(probes, skip);
+			
+			if(valid == skip) break;
+			
+			// If some probe deviates, try a smaller skip.
+			skip = valid < 0 ? skip / 2 : valid;
+		}
+		
+		this.skip = skip >= MIN_SKIP ? skip : 0;
+	}
+	
+	/**
+	 * @return true if this series was created for images of this size.
+	 */
+	boolean isFor(int width, int height) {
+		return this.width == width && this.height == height;
+	}
+	
+	/**
+	 * @return The number of iterations that are skipped or 0 if the 
+	 * series is not used.
+	 */
+	int skip() {
+		return skip;
+	}
+	
+	/**
+	 * Writes the difference of the point with dc to the reference at 
+	 * iteration skip into dst.
+	 */
+	void delta(double dcRe, double dcIm, double[] dst) {
+		double ur = dcRe / radius;
+		double ui = dcIm / radius;
+		
+		// Horner
+		double dr = 0, di = 0;
+		
+		for(int k = TERMS - 1; k >= 0; k--) {
+			double t = (dr + coefficients[2 * k]) * ur - (di + coefficients[2 * k + 1]) * ui;
+			di = (dr + coefficients[2 * k]) * ui + (di + coefficients[2 * k + 1]) * ur;
+			dr = t;
+		}
+		
+		dst[0] = dr;
+		dst[1] = di;
+	}
+	
+	/**
+	 * @return The last iteration in which the last term is negligible.
+	 */
+	private int candidate() {
+		double[] b = new double[2 * TERMS];
+		
+		// The last point of the reference is not used because 
+		// pixels must continue with the next one.
+		for(int n = 0; n + 1 < reference.length() - 1; n++) {
+			step(n, b);
+			
+			double first = Math.hypot(b[0], b[1]);
+			double last = Math.hypot(b[2 * TERMS - 2], b[2 * TERMS - 1]);
+			
+			if(!(last <= TOLERANCE * first)) {
+				return n;
+			}
+		}
+		
+		return reference.length() - 2;
+	}
+	
+	/**
+	 * @return The coefficients at iteration n
+	 */
+	private double[] coefficients(int n) {
+		double[] b = new double[2 * TERMS];
+		
+		for(int i = 0; i < n; i++) {
+			step(i, b);
+		}
+		
+		return b;
+	}
+	
+	/**
+	 * Calculates the coefficients of iteration n + 1 from those of iteration n. The
+	 * difference becomes sum_{j=1..p} binomial(p, j) z^(p - j) d^j + dc. 
+	 */
+	private void step(int n, double[] b) {
+		int p = reference.degree();
+		
+		double zr = reference.re(n);
+		double zi = reference.im(n);
+		
+		double[] next = new double[2 * TERMS];
+		double[] power = b.clone(); // d^j
+		
+		double binomial = p; // binomial(p, j)
+		
+		for(int j = 1; j <= p; j++) {
+			// binomial(p, j) * z^(p - j)
+			double fr = binomial, fi = 0;
+			
+			for(int k = j; k < p; k++) {
+				double t = fr * zr - fi * zi;
+				fi = fr * zi + fi * zr;
+				fr = t;
+			}
+			
+			for(int k = 0; k < TERMS; k++) {
+				next[2 * k] += fr * power[2 * k] - fi * power[2 * k + 1];
+				next[2 * k + 1] += fr * power[2 * k + 1] + fi * power[2 * k];
+			}
+			
+			if(j < p) {
+				power = multiply(power, b);
+				binomial = binomial * (p - j) / (j + 1);
+			}
+		}
+		
+		next[0] += radius; // dc = radius * u
+		
+		System.arraycopy(next, 0, b, 0, next.length);
+	}
+	
+	/**
+	 * @return The product of the series a and b without terms of a higher degree than TERMS. 
+	 */
+	private static double[] multiply(double[] a, double[] b) {
+		double[] c = new double[2 * TERMS];
+		
+		// Term k is u^(k + 1).
+		for(int i = 0; i < TERMS; i++) {
+			for(int j = 0; i + j + 1 < TERMS; j++) {
+				c[2 * (i + j + 1)] += a[2 * i] * b[2 * j] - a[2 * i + 1] * b[2 * j + 1];
+				c[2 * (i + j + 1) + 1] += a[2 * i] * b[2 * j + 1] + a[2 * i + 1] * b[2 * j];
+			}
+		}
+		
+		return c;
+	}
+	
+	/**
+	 * Iterates the probes by perturbation and compares them with the series at iteration skip.
+	 * @return skip if all of them agree, the iteration before the first probe that
+	 * needed rebasing or that escaped or -1 if a probe deviates from the series.
+	 */
+	private int probe(double[] probes, int skip) {
+		double[] d = new double[2];
+		double[] series = new double[2];
+		
+		double bailoutSqr = reference.bailout() * reference.bailout();
+		
+		int valid = skip;
+		
+		for(int i = 0; i < probes.length; i += 2) {
+			double dr = 0, di = 0;
+			
+			for(int n = 0; n < valid; n++) {
+				reference.perturb(n, dr, di, probes[i], probes[i + 1], d);
+				
+				dr = d[0];
+				di = d[1];
+				
+				double zr = reference.re(n + 1) + dr;
+				double zi = reference.im(n + 1) + di;
+				
+				double abs = zr * zr + zi * zi;
+				
+				if(abs < dr * dr + di * di || abs >= bailoutSqr) {
+					// The series does not know about rebasing and escaped 
+					// pixels must not skip their last iteration.
+					valid = n;
+					break;
+				}
+			}
+			
+			if(valid < skip) continue;
+			
+			delta(probes[i], probes[i + 1], series);
+			
+			if(Math.hypot(series[0] - dr, series[1] - di) > PROBE_TOLERANCE * Math.hypot(dr, di)) {
+				return -1;
+			}
+		}
+		
+		return valid;
+	}
+}
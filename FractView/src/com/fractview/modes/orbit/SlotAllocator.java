@@ -0,0 +1,155 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.modes.orbit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Slots for the data that stores keep for some pixels only. Each pixel has a
+ * word that contains its slot + 1 (0 if there is none) and up to two flags of 
+ * the store in the remaining bits. Slots are numbered in the order in which they
+ * are allocated and their data is kept in Chunks.
+ *
+ * A pixel is only accessed by the thread that calculates it. Slots and chunks are
+ * allocated atomically because all threads share them.
+ *
+ * Slots of pixels that are removed or overwritten are lost until reclaim is called,
+ * then they are used again. Hence there are never more slots than pixels.
+ */
+class SlotAllocator {
+
+	static final int CHUNK_SIZE = 1024; // Slots per chunk
+
+	// The other bits are free for flags.
+	static final int SLOT_MASK = 0x3fffffff;
+
+	private final int[] pixels;
+	private final AtomicInteger slotCount = new AtomicInteger();
+	
+	// Slots that no pixel has, the first freeCount ones are not allocated yet.
+	private int[] free = new int[0];
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	SlotAllocator(int pixelCount) {
+		this.pixels = new int[pixelCount];
+	}
+
+	int pixelCount() {
+		return pixels.length;
+	}
+
+	int word(int index) {
+		return pixels[index];
+	}
+
+	void setWord(int index, int word) {
+		pixels[index] = word;
+	}
+
+	/**
+	 * @return the slot of pixel index or -1 if there is none.
+	 */
+	int slot(int index) {
+		return (pixels[index] & SLOT_MASK) - 1;
+	}
+
+	/**
+	 * @return the slot of pixel index, a new one if there is none yet. 
+	 * It belongs to the pixel after assign was called.
+	 */
+	int allocate(int index) {
+		int slot = slot(index);
+		
+		if(slot >= 0) {
+			return slot;
+		}
+		
+		int i = freeCount.decrementAndGet();
+		return i >= 0 ? free[i] : slotCount.getAndIncrement();
+	}
+	
+	/**
+	 * Collects the slots that no pixel has any more so that allocate uses them
+	 * again. Must not be called while slots are allocated (eg after the image was moved).
+	 */
+	void reclaim() {
+		int count = slotCount.get();
+		boolean[] used = new boolean[count];
+		
+		for(int index = 0; index < pixels.length; index++) {
+			int slot = slot(index);
+			if(slot >= 0) used[slot] = true;
+		}
+		
+		int[] free = new int[count];
+		int freeCount = 0;
+		
+		for(int slot = count - 1; slot >= 0; slot--) {
+			// Reversed so that small slots are allocated first.
+			if(!used[slot]) free[freeCount++] = slot;
+		}
+		
+		this.free = free;
+		this.freeCount.set(freeCount);
+	}
+
+	/**
+	 * Sets the word of pixel index to slot and flags.
+	 */
+	void assign(int index, int slot, int flags) {
+		pixels[index] = flags | (slot + 1);
+	}
+
+	/**
+	 * Data of slots in arrays of type T (eg double[]) that contain size 
+	 * elements per slot. Chunks are created when they are needed.
+	 */
+	abstract static class Chunks<T> {
+		private final int size;
+		private final AtomicReferenceArray<T> chunks;
+
+		Chunks(SlotAllocator slots, int size) {
+			this.size = size;
+			this.chunks = new AtomicReferenceArray<T>((slots.pixelCount() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		}
+
+		/**
+		 * @return a new array with the given length.
+		 */
+		protected abstract T create(int length);
+
+		/**
+		 * @return the chunk that contains slot, its data starts at offset(slot).
+		 */
+		T chunk(int slot) {
+			int i = slot / CHUNK_SIZE;
+			T chunk = chunks.get(i);
+
+			if(chunk == null) {
+				chunks.compareAndSet(i, null, create(CHUNK_SIZE * size));
+				chunk = chunks.get(i);
+			}
+
+			return chunk;
+		}
+
+		int offset(int slot) {
+			return (slot % CHUNK_SIZE) * size;
+		}
+	}
+}
@@ -16,43 +16,52 @@ public enum CommonOrbitToFloat implements OrbitToFloat {
 		}
 	},
 	Length {
+		@Override
+		public int history() {
+			return 0;
+		}
+		
 		@Override
 		public float value(AbstractOrbit orbit) {
 			return orbit.length();
 		}
 	},
 	Sum_Exp_Smooth {
-		double expSmooth(AbstractOrbit orbit, int i) {
-			return Math.exp(-orbit.absSqr(i) - 0.5 / orbit.distSqr(i));
+		@Override
+		public boolean accumulates() {
+			return true;
+		}
+		
+		@Override
+		public double accumulate(double sum, AbstractOrbit orbit, int i) {
+			return sum + Math.exp(-orbit.absSqr(i) - 0.5 / orbit.distSqr(i));
 		}
 		
 		@Override
 		public float value(AbstractOrbit orbit) {
-			double degree = 0;
-
-			for(int i = 1; i < orbit.length(); i++) {
-				degree += expSmooth(orbit, i);
-			}
-
-			return (float) degree;
+			return (float) orbit.sum(this);
 		}
 	},		
 	Sum_Log_Delta {		
+		@Override
+		public boolean accumulates() {
+			return true;
+		}
+		
+		@Override
+		public double accumulate(double sum, AbstractOrbit orbit, int i) {
+			return sum + Math.log(orbit.distSqr(i) + 1);
+		}
+		
 		@Override
 		public float value(AbstractOrbit orbit) {
-			double sum = 0.;
-
-			for(int i = 0; i < orbit.length() - 1; i++) {
-				sum += Math.log(orbit.get(i + 1).distSqr(orbit.get(i)) + 1);
-			}
-
-			return (float) sum;
+			return (float) orbit.sum(this);
 		}
 	},
 	Last_Angle {
 		@Override
 		public float value(AbstractOrbit orbit) {
-			return (float) (orbit.get(orbit.length() - 1).arg() * 0.5 / Math.PI);
+			return (float) (orbit.arg(orbit.length() - 1) * 0.5 / Math.PI);
 		}
 	},
 	/*LastRad {
@@ -103,7 +112,23 @@ public enum CommonOrbitToFloat implements OrbitToFloat {
 		}
 		
 	},*/
+	Period {
+		@Override
+		public int history() {
+			return 0;
+		}
+		
+		@Override
+		public float value(AbstractOrbit orbit) {
+			return ((EscapeTime.Orbit) orbit).period();
+		}
+	},
 	Zero {
+		@Override
+		public int history() {
+			return 0;
+		}
+		
 		@Override
 		public float value(AbstractOrbit orbit) {
 			return 0;
@@ -178,4 +203,27 @@ public enum CommonOrbitToFloat implements OrbitToFloat {
 			return sum + last * d;
 		}
 	}//*/
+	;
+	
+	/**
+	 * Unless overridden, methods read the last two points (the last one and the
+	 * one before that, as smooth does) and do not accumulate anything.
+	 */
+	@Override
+	public int history() {
+		return 2;
+	}
+	
+	@Override
+	public double accumulate(double sum, AbstractOrbit orbit, int i) {
+		return sum;
+	}
+	
+	/**
+	 * @return true if the value depends on all points of the orbit 
+	 * because the method overrides accumulate.
+	 */
+	public boolean accumulates() {
+		return false;
+	}
 }
\ No newline at end of file
@@ -13,6 +13,14 @@ public enum CommonTransfer implements Transfer {
 			// TODO: Should return value between 0 and 1 if value is between 0 and 1...
 			return (float) (Math.log(value + 1.) / LOG_2);
 		}
+	},
+	Equalize { // Histogram equalization
+		// Values are not mapped by a function but by their distribution, 
+		// see OrbitTransfer.createStats. With a custom range, this is None.
+		@Override
+		public float transfer(float value) {
+			return value;
+		}
 	};
 	private static final double LOG_2 = Math.log(2);
 }
@@ -0,0 +1,90 @@
+package com.fractview.modes.orbit.colorization;
+
+/**
+ * Distribution of float values for histogram equalization. Values are sorted
+ * into buckets by the upper bits of their binary representation, hence buckets
+ * cover all values with the same relative precision and no range must be known
+ * in advance.
+ * 
+ * Workers add values to their own instances which are then merged into a shared 
+ * one. Only merged instances can be used to look up values.
+ */
+public class Histogram {
+	// Sign, exponent and 5 bits of the mantissa, hence 32 buckets per power of two.
+	private static final int BUCKET_BITS = 14;
+	private static final int SHIFT = 32 - BUCKET_BITS;
+	
+	private int[] counts = new int[1 << BUCKET_BITS];
+	private int total;
+	
+	// Number of values in all buckets below the index. Set when merging.
+	private int[] below;
+	
+	/** Maps floats to ints that are ordered like the floats when they are compared 
+	 * as unsigned ints.
+	 */
+	private static int key(float f) {
+		int bits = Float.floatToIntBits(f);
+		
+		// Negative floats are ordered the other way round.
+		return bits ^ ((bits >> 31) | 0x80000000);
+	}
+	
+	public void add(float f) {
+		counts[key(f) >>> SHIFT]++;
+		total++;
+	}
+	
+	public int total() {
+		return total;
+	}
+	
+	/** Moves all values of h into this histogram and updates the lookup table.
+	 * @param h
+	 * @return true if h contained values.
+	 */
+	public boolean addAll(Histogram h) {
+		if(h.total == 0) {
+			return false;
+		}
+		
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] += h.counts[i];
+			h.counts[i] = 0;
+		}
+		
+		total += h.total;
+		h.total = 0;
+		
+		if(below == null) {
+			below = new int[counts.length];
+		}
+		
+		int sum = 0;
+		
+		for(int i = 0; i < counts.length; i++) {
+			below[i] = sum;
+			sum += counts[i];
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @param f
+	 * @return The fraction of values that are smaller than f. Inside the bucket 
+	 * of f, values are assumed to be spread evenly.
+	 */
+	public float cdf(float f) {
+		if(below == null) {
+			return 0;
+		}
+		
+		int key = key(f);
+		int bucket = key >>> SHIFT;
+		
+		float d = (key & ((1 << SHIFT) - 1)) / (float) (1 << SHIFT);
+		
+		return (below[bucket] + d * counts[bucket]) / total;
+	}
+}
@@ -18,6 +18,34 @@ package com.fractview.modes.orbit.colorization;
 
 import com.fractview.modes.orbit.AbstractOrbitPrefs;
 
+/**
+ * Maps an orbit to a float. Implementations that do not need the whole orbit
+ * declare how many of the last points they read, so that the orbit only has 
+ * to keep these. Values that depend on all points are summed up in accumulate
+ * while the orbit is generated.
+ */
 public interface OrbitToFloat {
+	/**
+	 * Return value of history if the whole orbit is needed.
+	 */
+	int FULL_ORBIT = -1;
+	
+	/**
+	 * @return The number of most recent points of the orbit that are accessed
+	 * in value and accumulate, or FULL_ORBIT.
+	 */
+	int history();
+	
+	/**
+	 * Called for each point i >= 1 of the orbit once it is known that the orbit
+	 * continues after it. Hence, the last point of an orbit that bails out is not
+	 * accumulated.
+	 * @param sum The current sum of this method in the orbit
+	 * @param orbit
+	 * @param i
+	 * @return The new sum
+	 */
+	double accumulate(double sum, AbstractOrbitPrefs.AbstractOrbit orbit, int i);
+	
 	float value(AbstractOrbitPrefs.AbstractOrbit orbit);
 }
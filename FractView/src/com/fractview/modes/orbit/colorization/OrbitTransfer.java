@@ -1,5 +1,7 @@
 package com.fractview.modes.orbit.colorization;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class OrbitTransfer {
 	private CommonTransfer transfer;
 	private Stats stats;
@@ -28,23 +30,67 @@ public class OrbitTransfer {
 		}
 	}
 	
+	/** Same as above for values that are already part of the statistics.
+	 */
+	public float value(float value, Stats defaultStats) {
+		float f = transfer.transfer(value);
+		
+		if(stats != null) {
+			return stats.normalize(f);
+		} else {
+			return defaultStats.normalize(f);
+		}
+	}
+	
 	public Stats stats() {
 		return stats;
 	}
+	
+	/**
+	 * @return Empty statistics to collect the values of this transfer. They 
+	 * contain a histogram if the transfer is Equalize and there are no custom stats.
+	 */
+	public Stats createStats() {
+		return new Stats(equalize() ? new Histogram() : null);
+	}
+	
+	/**
+	 * @return Empty statistics that are shared by several threads. Same as createStats
+	 * otherwise.
+	 */
+	public SharedStats createSharedStats() {
+		return new SharedStats(equalize() ? new Histogram() : null);
+	}
+	
+	private boolean equalize() {
+		return transfer == CommonTransfer.Equalize && stats == null;
+	}
 
 	public CommonTransfer transfer() {
 		return transfer;
 	}
 	
+	/** Range of values. Instances are used by one thread at a time, 
+	 * eg to collect the values of a worker, or they are not modified at all 
+	 * (custom stats). Shared statistics are SharedStats.
+	 */
 	public static class Stats {
-		private volatile float minValue;
-		private volatile float maxValue;
+		private float minValue;
+		private float maxValue;
+		
+		// If not null, values are normalized by their distribution. 
+		private transient Histogram histogram;
 		
 		public Stats() {
 			minValue = Float.POSITIVE_INFINITY;
 			maxValue = Float.NEGATIVE_INFINITY;
 		}
 		
+		public Stats(Histogram histogram) {
+			this();
+			this.histogram = histogram;
+		}
+		
 		public Stats(float minValue, float maxValue) {
 			this.minValue = minValue;
 			this.maxValue = maxValue;
@@ -58,7 +104,15 @@ public class OrbitTransfer {
 			return maxValue;
 		}
 		
+		public Histogram histogram() {
+			return histogram;
+		}
+		
 		public float normalize(float f) {
+			if(histogram != null) {
+				return histogram.cdf(f);
+			}
+			
 			return (f - minValue) / (maxValue - minValue);
 		}
 		
@@ -67,16 +121,126 @@ public class OrbitTransfer {
 			if(v > maxValue) maxValue = v;
 		}
 		
-		public void update(Stats stats) {
-			if(stats.minValue < this.minValue) {
-				this.minValue = stats.minValue;
+		/** Merges stats into this instance. Values in the histogram of stats 
+		 * are moved into the one of this instance, hence each value is only 
+		 * counted once if this is called repeatedly.
+		 * @param stats
+		 * @return true if this instance was modified.
+		 */
+		public boolean update(Stats stats) {
+			boolean changed = false;
+			
+			if(histogram != null && stats.histogram != null) {
+				changed = histogram.addAll(stats.histogram);
+			}
+			
+			if(stats.minValue() < this.minValue) {
+				this.minValue = stats.minValue();
+				changed = true;
 			}
 
-			if(stats.maxValue > this.maxValue) {
-				this.maxValue = stats.maxValue;
+			if(stats.maxValue() > this.maxValue) {
+				this.maxValue = stats.maxValue();
+				changed = true;
 			}
+			
+			return changed;
+		}
+	}
+	
+	/** Statistics that are read and merged by several threads. Minimum and 
+	 * maximum are packed into one long (minimum in the upper half) so that 
+	 * readers always see a consistent range and merging is a compare-and-set.
+	 * The fields of Stats are not used.
+	 */
+	public static class SharedStats extends Stats {
+		private final AtomicLong range = new AtomicLong(
+				pack(Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY));
+		
+		public SharedStats(Histogram histogram) {
+			super(histogram);
+		}
+		
+		private static long pack(float minValue, float maxValue) {
+			return ((long) Float.floatToRawIntBits(minValue)) << 32 | 
+					(Float.floatToRawIntBits(maxValue) & 0xffffffffL);
+		}
+		
+		private static float min(long range) {
+			return Float.intBitsToFloat((int) (range >>> 32));
+		}
+		
+		private static float max(long range) {
+			return Float.intBitsToFloat((int) range);
+		}
+		
+		@Override
+		public float minValue() {
+			return min(range.get());
+		}
+		
+		@Override
+		public float maxValue() {
+			return max(range.get());
+		}
+		
+		@Override
+		public float normalize(float f) {
+			if(histogram() != null) {
+				return histogram().cdf(f);
+			}
+			
+			long r = range.get();
+			
+			float minValue = min(r);
+			float maxValue = max(r);
+			
+			return (f - minValue) / (maxValue - minValue);
+		}
+		
+		@Override
+		public void nextValue(float v) {
+			extend(v, v);
+		}
+		
+		/** Extends the range to contain minValue and maxValue.
+		 * @return true if the range was modified.
+		 */
+		private boolean extend(float minValue, float maxValue) {
+			while(true) {
+				long r = range.get();
+				
+				float oldMin = min(r);
+				float oldMax = max(r);
+				
+				if(!(minValue < oldMin) && !(maxValue > oldMax)) {
+					return false;
+				}
+				
+				long newRange = pack(Math.min(minValue, oldMin), Math.max(maxValue, oldMax));
+				
+				if(range.compareAndSet(r, newRange)) {
+					return true;
+				}
+			}
+		}
+		
+		/** Same as in Stats. Can be called by several threads at once.
+		 */
+		@Override
+		public boolean update(Stats stats) {
+			boolean changed = false;
+			
+			if(histogram() != null && stats.histogram() != null) {
+				synchronized(histogram()) {
+					changed = histogram().addAll(stats.histogram());
+				}
+			}
+			
+			// Empty stats have an empty range (+inf, -inf) that does not change anything.
+			changed |= extend(stats.minValue(), stats.maxValue());
+			
+			return changed;
 		}
 	}
-
-
 }
@@ -17,6 +17,7 @@
 package com.fractview.modes.orbit.functions;
 
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
 import com.fractview.modes.PointParameters;
 
 public interface AbstractFunction extends PointParameters {
@@ -26,12 +27,12 @@ public interface AbstractFunction extends PointParameters {
 	 * @param c
 	 * @return The number of values that were written in the orbit.
 	 */
-	int init(Cplx[] orbit, Cplx c);
+	int init(CplxArray orbit, Cplx c);
 
 	/** Calculates one step of the zs-sequence, in detail after execution z[n+1] will contain the appropriate value.
 	 * @param zs
 	 * @param n
 	 * @param c
 	 */
-	void step(Cplx[] zs, int n, Cplx c);	
+	void step(CplxArray zs, int n, Cplx c);	
 }
\ No newline at end of file
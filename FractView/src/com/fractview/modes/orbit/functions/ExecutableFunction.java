@@ -24,6 +24,10 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
+import com.fractview.math.DoubleDoubleCplx;
+import com.fractview.math.tree.ClassGenerator;
+import com.fractview.math.tree.DoubleDoubleExecutable;
 import com.fractview.math.tree.Executable;
 import com.fractview.math.tree.ExprCompiler;
 import com.fractview.math.tree.Var;
@@ -38,20 +42,36 @@ public class ExecutableFunction implements AbstractFunction {
 	private Map<String, Integer> parameterMap; // map from label to index in parameters-array	
 	private Cplx[] parameters;
 
+	// The code is kept for the double-double executables. They are only 
+	// created if an orbit needs them.
+	private int[] codeFn;
+	private List<int[]> codeInits;
+	private Cplx[] constants;
+	
+	private DoubleDoubleExecutable doubleDoubleFunction;
+	private DoubleDoubleExecutable[] doubleDoubleInits;
+
 	
 	public static ExecutableFunction create(Function spec) {
 		// We need to create an order of parameters and constants, therefore we collect all parameters in a list
 		List<Var> parameterLabels = new LinkedList<Var>();
 		List<Cplx> constants = new LinkedList<Cplx>(); // These will be used in executables.
 		
-		// Now generate all instruction lists, and fill parameters/constants
-		List<Integer> instructionsFn = ExprCompiler.generateInstructionList(spec.function().get(), constants, parameterLabels);
+		// Parameters and constants are shared by function and inits, so collect them first.
+		ExprCompiler.collect(spec.function().get(), constants, parameterLabels);
+		
+		for(int i = 0; i < spec.initsSize(); i++) {
+			ExprCompiler.collect(spec.init(i).get(), constants, parameterLabels);
+		}
+		
+		// Now generate code
+		int[] codeFn = ExprCompiler.generateCode(spec.function().get(), constants, parameterLabels);
 		
 		// Now the initalizations
-		List<List<Integer>> instructionsInits = new ArrayList<List<Integer>>(spec.initsSize());
+		List<int[]> codeInits = new ArrayList<int[]>(spec.initsSize());
 
 		for(int i = 0; i < spec.initsSize(); i++) {
-			instructionsInits.add(ExprCompiler.generateInstructionList(spec.init(i).get(), constants, parameterLabels));
+			codeInits.add(ExprCompiler.generateCode(spec.init(i).get(), constants, parameterLabels));
 		}
 		
 		List<String> parameterStrings = new LinkedList<String>();
@@ -60,7 +80,7 @@ public class ExecutableFunction implements AbstractFunction {
 			parameterStrings.add(v.id());
 		}
 
-		ExecutableFunction function = new ExecutableFunction(spec, instructionsFn, instructionsInits, constants, parameterStrings);
+		ExecutableFunction function = new ExecutableFunction(spec, codeFn, codeInits, constants, parameterStrings);
 
 		// Set values of parameters in the executable function we just created
 		for(Var v : parameterLabels) {
@@ -74,11 +94,12 @@ public class ExecutableFunction implements AbstractFunction {
 	private ExecutableFunction() {} // For GSon
 	
 	/** This constructor takes a specification of an object and compiles it into a group of Executable that are used
-	 * to calculate values faaast.
+	 * to calculate values faaast. Executables contain their own registers, hence an instance of this 
+	 * class must only be used by one thread at a time.
 	 */
 	public ExecutableFunction(Function spec, 
-			List<Integer> instructionsFn, 
-			List<List<Integer>> instructionsInits, 
+			int[] codeFn, 
+			List<int[]> codeInits, 
 			List<Cplx> constants, 
 			List<String> parameterLabels) {
 		
@@ -97,28 +118,88 @@ public class ExecutableFunction implements AbstractFunction {
 		
 		// Now create executables
 		Cplx[] constantsArray = constants.toArray(new Cplx[constants.size()]);
+		
+		this.codeFn = codeFn;
+		this.codeInits = codeInits;
+		this.constants = constantsArray;
 
-		// Since the constants are not subject to modification we can store it directly inside the executables
-		this.function = new Executable(instructionsFn, constantsArray);
+		// Since the constants are not subject to modification we can store it directly inside the executables.
+		// If the VM permits it, the executables are compiled into classes, otherwise they are interpreted.
+		this.function = ClassGenerator.create(codeFn, constantsArray, parameters.length);
 		
-		this.inits = new Executable[instructionsInits.size()];
+		this.inits = new Executable[codeInits.size()];
 
 		for(int i = 0; i < this.inits.length; i++) {
-			this.inits[i] = new Executable(instructionsInits.get(i), constantsArray);
+			this.inits[i] = ClassGenerator.create(codeInits.get(i), constantsArray, parameters.length);
 		}
 	}
 
-	public int init(Cplx[] orbit, Cplx c) {
+	public int init(CplxArray orbit, Cplx c) {
+		orbit.ensureIndex(inits.length - 1);
+		
 		for(int i = 0; i < inits.length; i++) {
-			inits[i].execute(c, orbit, i - 1, parameters, orbit[i]);
+			inits[i].execute(c, orbit, i - 1);
 		}
 		
 		return inits.length;
 	}
 	
 	@Override
-	public void step(Cplx[] zs, int n, Cplx c) {
-		function.execute(c, zs, n, parameters, zs[n + 1]);
+	public void step(CplxArray zs, int n, Cplx c) {
+		function.execute(c, zs, n);
+	}
+	
+	/**
+	 * Like init but in double-double precision. The points are split into 
+	 * orbit that contains them rounded to doubles and lows that contains
+	 * the remainders (see DoubleDoubleExecutable).
+	 */
+	public int init(CplxArray orbit, CplxArray lows, DoubleDoubleCplx c) {
+		if(doubleDoubleInits == null) {
+			createDoubleDouble();
+		}
+		
+		orbit.ensureIndex(doubleDoubleInits.length - 1);
+		lows.ensureIndex(doubleDoubleInits.length - 1);
+		
+		for(int i = 0; i < doubleDoubleInits.length; i++) {
+			doubleDoubleInits[i].execute(c, orbit, lows, i - 1);
+		}
+		
+		return doubleDoubleInits.length;
+	}
+	
+	/**
+	 * Like step but in double-double precision.
+	 */
+	public void step(CplxArray zs, CplxArray lows, int n, DoubleDoubleCplx c) {
+		// Resumed orbits are not initialized.
+		if(doubleDoubleFunction == null) {
+			createDoubleDouble();
+		}
+		
+		doubleDoubleFunction.execute(c, zs, lows, n);
+	}
+	
+	private void createDoubleDouble() {
+		doubleDoubleFunction = new DoubleDoubleExecutable(codeFn, constants, parameters.length);
+		doubleDoubleInits = new DoubleDoubleExecutable[codeInits.size()];
+		
+		for(int i = 0; i < doubleDoubleInits.length; i++) {
+			doubleDoubleInits[i] = new DoubleDoubleExecutable(codeInits.get(i), constants, parameters.length);
+		}
+		
+		for(int index = 0; index < parameters.length; index++) {
+			setDoubleDoubleParameter(index, parameters[index]);
+		}
+	}
+	
+	private void setDoubleDoubleParameter(int index, Cplx c) {
+		doubleDoubleFunction.setParameter(index, c);
+		
+		for(DoubleDoubleExecutable init : doubleDoubleInits) {
+			init.setParameter(index, c);
+		}
 	}
 	
 	@Override
@@ -133,7 +214,20 @@ public class ExecutableFunction implements AbstractFunction {
 
 	@Override
 	public void set(String label, Cplx c) {
-		parameters[parameterMap.get(label)].set(c);
+		int index = parameterMap.get(label);
+		
+		parameters[index].set(c);
+		
+		// Parameters live in the registers of the executables
+		function.setParameter(index, c);
+		
+		for(Executable init : inits) {
+			init.setParameter(index, c);
+		}
+		
+		if(doubleDoubleFunction != null) {
+			setDoubleDoubleParameter(index, c);
+		}
 	}
 	
 	@Override
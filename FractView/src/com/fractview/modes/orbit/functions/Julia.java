@@ -19,6 +19,7 @@ package com.fractview.modes.orbit.functions;
 import java.util.Iterator;
 
 import com.fractview.math.Cplx;
+import com.fractview.math.CplxArray;
 
 // TODO: Include julia sets into GUI.
 public class Julia implements AbstractFunction {
@@ -88,15 +89,15 @@ public class Julia implements AbstractFunction {
 	}
 
 	@Override
-	public int init(Cplx[] orbit, Cplx c) {
+	public int init(CplxArray orbit, Cplx c) {
 		int length = function.init(orbit, c);
-		orbit[0].set(c);
+		orbit.set(0, c);
 		
 		return length;
 	}
 
 	@Override
-	public void step(Cplx[] zs, int n, Cplx c) {
+	public void step(CplxArray zs, int n, Cplx c) {
 		function.step(zs, n, p);
 	}
 }
@@ -0,0 +1,35 @@
+/*
+ * This file is part of FractView.
+ *
+ * FractView is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FractView is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FractView.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.fractview.tools;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for classes that must not depend on Android (same methods as 
+ * android.util.Log). Messages go to java.util.logging, which is forwarded
+ * to logcat on Android.
+ */
+public class Log {
+	public static void d(String tag, String msg) {
+		Logger.getLogger(tag).log(Level.FINE, msg);
+	}
+
+	public static void e(String tag, String msg) {
+		Logger.getLogger(tag).log(Level.SEVERE, msg);
+	}
+}